@@ -0,0 +1,30 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 运维接口访问控制配置
+ * 对应application.yaml中的hmdp.admin
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.admin")
+public class AdminProperties {
+
+    /**
+     * 允许访问运维接口的来源地址，默认只允许本机
+     * 以.或:结尾时按前缀匹配，例如 10.0.
+     */
+    private List<String> allowedAddresses = new ArrayList<>(Arrays.asList("127.0.0.1", "0:0:0:0:0:0:0:1"));
+
+    /**
+     * 允许从任意地址访问运维接口的管理员用户id，需要登录
+     */
+    private List<Long> userIds = new ArrayList<>();
+}
@@ -0,0 +1,25 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 缓存序列化配置
+ */
+@Configuration
+public class CacheConfig {
+
+    /**
+     * 根据hmdp.cache.codec选择序列化方式，默认json
+     */
+    @Bean
+    public CacheCodec cacheCodec(CacheProperties cacheProperties) {
+        if ("binary".equalsIgnoreCase(cacheProperties.getCodec())) {
+            return new BinaryCacheCodec(cacheProperties.getCompressThreshold());
+        }
+        return new JsonCacheCodec();
+    }
+}
@@ -0,0 +1,185 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 缓存相关配置
+ * 对应application.yaml中的hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+
+    /**
+     * 是否开启本地一级缓存
+     */
+    private boolean localEnabled = true;
+
+    /**
+     * 每个缓存前缀在本地最多保存的条目数
+     */
+    private long localMaximumSize = 10000;
+
+    /**
+     * 本地缓存默认过期时间，单位秒
+     */
+    private long localDefaultTtl = 60;
+
+    /**
+     * 按缓存前缀单独设置本地缓存过期时间，单位秒
+     * key为缓存前缀，例如 cache:shop:
+     */
+    private Map<String, Long> localTtl = new HashMap<>();
+
+    /**
+     * 互斥锁重建是否合并并发请求(single-flight)
+     * 关闭时未获取到锁的请求休眠后重试
+     */
+    private boolean singleFlight = true;
+
+    /**
+     * 未获取到互斥锁时每次等待的最长时间，单位毫秒
+     */
+    private long mutexWaitMillis = 200;
+
+    /**
+     * 未获取到互斥锁时最多重试次数，用尽后直接查询数据库
+     */
+    private int mutexMaxRetries = 10;
+
+    /**
+     * 缓存序列化方式：json(默认) 或 binary
+     */
+    private String codec = "json";
+
+    /**
+     * binary序列化时超过该字节数使用LZ4压缩，小于0表示不压缩
+     */
+    private int compressThreshold = 512;
+
+    /**
+     * 提前刷新模式的beta系数，越大越早刷新
+     */
+    private double earlyRefreshBeta = 1.0;
+
+    /**
+     * 店铺查询使用的缓存策略：mutex(默认)、logical、early-refresh、pass-through
+     */
+    private String shopStrategy = "mutex";
+
+    /**
+     * 是否开启布隆过滤器拦截不存在的店铺、笔记、用户id
+     */
+    private boolean bloomEnabled = true;
+
+    /**
+     * 布隆过滤器预计元素数量
+     */
+    private long bloomExpectedInsertions = 1000000;
+
+    /**
+     * 布隆过滤器误判率
+     */
+    private double bloomFpp = 0.01;
+
+    /**
+     * 启动时是否预热缓存
+     */
+    private boolean warmupEnabled = true;
+
+    /**
+     * 预热时每页加载的店铺数量
+     */
+    private int warmupPageSize = 500;
+
+    /**
+     * 预热时并行写入redis的线程数
+     */
+    private int warmupParallelism = 4;
+
+    /**
+     * 是否开启热点key探测
+     */
+    private boolean hotKeyEnabled = true;
+
+    /**
+     * 热点key探测的采样率，0~1
+     */
+    private double hotKeySampleRate = 0.1;
+
+    /**
+     * 统计窗口长度，单位秒
+     */
+    private int hotKeyWindowSeconds = 10;
+
+    /**
+     * 窗口内访问次数达到该值的key提升为热点，降到一半以下时撤销
+     */
+    private long hotKeyThreshold = 1000;
+
+    /**
+     * 保留访问次数最多的key数量
+     */
+    private int hotKeyTopK = 20;
+
+    /**
+     * 热点key本地副本的过期时间，单位秒
+     */
+    private long hotKeyLocalTtl = 2;
+
+    /**
+     * 是否开启数据变更驱动的缓存失效
+     */
+    private boolean cdcEnabled = true;
+
+    /**
+     * 变更事件源：local(默认，业务代码发布)、file(读取文件追加的事件)
+     */
+    private String cdcSource = "local";
+
+    /**
+     * file事件源读取的文件
+     */
+    private String cdcFile = "cdc-events.log";
+
+    /**
+     * 每批最多处理的事件数
+     */
+    private int cdcBatchSize = 200;
+
+    /**
+     * 收集一批事件的最长等待时间，单位毫秒
+     */
+    private long cdcBatchWindowMillis = 50;
+
+    /**
+     * 延迟双删的间隔，应大于一次缓存重建的耗时，单位毫秒
+     */
+    private long cdcDoubleDeleteDelayMillis = 500;
+
+    /**
+     * 缓存重建线程数
+     */
+    private int rebuildThreads = 10;
+
+    /**
+     * 缓存重建队列容量，满时丢弃最早提交的任务
+     */
+    private int rebuildQueueCapacity = 1000;
+
+    /**
+     * 每个缓存前缀(对应一张表)同时重建的最大数量
+     */
+    private int rebuildTableConcurrency = 4;
+
+    /**
+     * 关闭时等待重建任务执行完的最长时间，单位秒
+     */
+    private long rebuildShutdownSeconds = 10;
+}
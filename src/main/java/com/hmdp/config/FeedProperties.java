@@ -0,0 +1,100 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 关注推送(feed)相关配置
+ * 对应application.yaml中的hmdp.feed
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.feed")
+public class FeedProperties {
+
+    /**
+     * 每个节点消费stream.feed的推送线程数
+     */
+    private int fanoutWorkers = 2;
+
+    /**
+     * 每个推送任务处理的粉丝数，按主键分页读取
+     */
+    private int fanoutChunkSize = 1000;
+
+    /**
+     * 推送队列为空时阻塞等待的时间，单位毫秒
+     */
+    private long fanoutBlockMillis = 2000;
+
+    /**
+     * 其他消费者的推送任务空闲超过该时间后被认领，单位毫秒
+     */
+    private long fanoutClaimIdleMillis = 60000;
+
+    /**
+     * 推送进度的保存时间，单位小时
+     */
+    private long fanoutProgressTtlHours = 24;
+
+    /**
+     * 推送任务的最大投递次数，超过后记录失败并丢弃，不再重试
+     */
+    private int fanoutMaxDeliveries = 5;
+
+    /**
+     * 粉丝数达到该值的作者按大V处理，笔记只写入发件箱，由粉丝读取时拉取
+     */
+    private long celebrityThreshold = 10000;
+
+    /**
+     * 每个大V发件箱保留的笔记数
+     */
+    private int outboxMaxLen = 1000;
+
+    /**
+     * 作者粉丝数缓存时间，单位分钟
+     */
+    private long fansCacheTtlMinutes = 60;
+
+    /**
+     * 每个粉丝收件箱保留的笔记数
+     */
+    private int inboxMaxLen = 500;
+
+    /**
+     * 超过该天数未读取关注流的用户，收件箱会被淘汰
+     */
+    private long inboxIdleDays = 30;
+
+    /**
+     * 重建收件箱时读取最近多少天的笔记
+     */
+    private long rebuildLookbackDays = 30;
+
+    /**
+     * 淘汰不活跃收件箱的间隔，单位毫秒
+     */
+    private long evictIntervalMillis = 3600000;
+
+    /**
+     * 每次脚本调用淘汰的收件箱数
+     */
+    private int evictBatchSize = 500;
+
+    /**
+     * 关注流默认每页数量
+     */
+    private int pageSize = 10;
+
+    /**
+     * 关注流请求参数size的上限
+     */
+    private int maxPageSize = 50;
+
+    /**
+     * 关注流并行查询点赞状态的线程数
+     */
+    private int hydrateThreads = 8;
+}
@@ -0,0 +1,54 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 全局唯一Id生成配置
+ * 对应application.yaml中的hmdp.id
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdWorkerProperties {
+
+    /**
+     * 默认生成方式：incr(每个Id一次INCR)、segment(每次INCRBY获取一段序列号，本地分配)、snowflake(本地生成，不访问redis)
+     */
+    private String mode = "segment";
+
+    /**
+     * 按业务前缀指定生成方式，未配置的前缀使用mode
+     * 前缀从redis方式切换到snowflake后不能再切回，见SnowflakeIdGenerator
+     */
+    private Map<String, String> prefixModes = new HashMap<>();
+
+    /**
+     * segment模式每次获取的序列号数量
+     */
+    private int segmentStep = 1000;
+
+    /**
+     * 当前号段剩余比例低于该值时异步获取下一个号段
+     */
+    private double prefetchRatio = 0.2;
+
+    /**
+     * snowflake的workerId，0~1023，小于0时启动时通过redis租用
+     */
+    private int workerId = -1;
+
+    /**
+     * workerId租期，单位秒，后台每三分之一租期续约一次
+     */
+    private int workerLeaseSeconds = 60;
+
+    /**
+     * 可容忍的时钟回拨，单位毫秒，回拨期间继续递增序列号，超过时拒绝生成
+     */
+    private long maxBackwardMillis = 5;
+}
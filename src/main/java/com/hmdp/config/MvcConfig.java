@@ -1,7 +1,10 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillAdmissionInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -18,6 +21,14 @@ public class MvcConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private AdminProperties adminProperties;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -29,9 +40,23 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop-type/**",
                         "/upload/**",
                         "/blog/hot",
+                        "/cache/**",
                         "/user/login",
                         "/user/code"
                 ).order(1);
+        //运维接口拦截器，只允许内部地址或管理员，/cache/ready供健康检查使用不拦截
+        registry.addInterceptor(new AdminInterceptor(adminProperties))
+                .addPathPatterns(
+                        "/cache/**",
+                        "/voucher/seckill/batch",
+                        "/voucher-order/stream",
+                        "/voucher-order/stats",
+                        "/voucher-order/admission"
+                )
+                .excludePathPatterns("/cache/ready").order(1);
+        //秒杀准入拦截器，登录后再判断
+        registry.addInterceptor(new SeckillAdmissionInterceptor(seckillAdmission, seckillProperties))
+                .addPathPatterns("/voucher-order/seckill/**").order(2);
         //token刷新拦截器
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
     }
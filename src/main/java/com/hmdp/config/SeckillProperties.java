@@ -0,0 +1,158 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 秒杀相关配置
+ * 对应application.yaml中的hmdp.seckill
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 每个节点消费stream.orders的消费者数量
+     */
+    private int consumers = 4;
+
+    /**
+     * 每次从消息队列读取的最大消息数，一批消息在一个事务中保存
+     */
+    private int batchSize = 100;
+
+    /**
+     * 消息队列为空时阻塞等待的时间，单位毫秒
+     */
+    private long blockMillis = 2000;
+
+    /**
+     * 消费者名称前缀，为空时使用主机名，同一节点重启后沿用同一名称以便处理未确认的消息
+     */
+    private String consumerPrefix = "";
+
+    /**
+     * 新增秒杀券未指定分片数时的默认库存分片数，1表示不分片
+     */
+    private int stockShards = 1;
+
+    /**
+     * 本地售罄标记的有效时间，过期后重新以redis库存为准，单位秒
+     */
+    private long soldOutTtlSeconds = 60;
+
+    /**
+     * 本地缓存秒杀开始、结束时间的时间，单位秒
+     */
+    private long voucherTimeCacheSeconds = 60;
+
+    /**
+     * 消费者保存订单时的一人一单锁：global、redisson、local、none，见OrderLock
+     */
+    private String orderLockMode = "local";
+
+    /**
+     * local模式的锁分段数
+     */
+    private int orderLockStripes = 64;
+
+    /**
+     * 订单消息队列超过该长度时裁剪已确认的消息
+     */
+    private long streamMaxLen = 100000;
+
+    /**
+     * 每确认多少条消息检查一次是否需要裁剪
+     */
+    private long trimEveryAcks = 1000;
+
+    /**
+     * 未确认的消息空闲超过该时间后可被其他消费者认领，单位毫秒
+     */
+    private long claimIdleMillis = 30000;
+
+    /**
+     * 每个消费者扫描PendingList的间隔，单位毫秒
+     */
+    private long claimIntervalMillis = 5000;
+
+    /**
+     * 消息投递次数达到该值后转入死信队列
+     */
+    private long maxDeliveries = 5;
+
+    /**
+     * 死信队列的最大长度(近似)
+     */
+    private long dlqMaxLen = 10000;
+
+    /**
+     * 是否开启秒杀请求准入控制，见SeckillAdmission
+     */
+    private boolean admissionEnabled = true;
+
+    /**
+     * 每张秒杀券本节点每秒放行的请求数(令牌桶速率)
+     */
+    private double admissionRate = 500;
+
+    /**
+     * 令牌桶容量，实际容量不超过剩余库存
+     */
+    private long admissionBurst = 1000;
+
+    /**
+     * 每张秒杀券所有节点每秒放行的请求数(redis计数)
+     */
+    private long admissionGlobalRate = 2000;
+
+    /**
+     * 按秒杀券单独设置本节点速率，key为优惠券id
+     */
+    private Map<Long, Double> admissionRates = new HashMap<>();
+
+    /**
+     * 按秒杀券单独设置全局速率，key为优惠券id
+     */
+    private Map<Long, Long> admissionGlobalRates = new HashMap<>();
+
+    /**
+     * 本节点同时执行下单的请求数
+     */
+    private int admissionMaxConcurrent = 50;
+
+    /**
+     * 等待执行下单的最大请求数，超过时直接拒绝
+     */
+    private int admissionQueueCapacity = 200;
+
+    /**
+     * 排队等待的最长时间，单位毫秒
+     */
+    private long admissionQueueTimeoutMillis = 500;
+
+    /**
+     * 订单处理结果的保存时间，单位秒
+     */
+    private long orderStatusTtlSeconds = 600;
+
+    /**
+     * 查询订单状态时长轮询的最长等待时间，单位毫秒
+     */
+    private long orderStatusMaxWaitMillis = 30000;
+
+    /**
+     * 秒杀开始前多久把库存预先写入redis，单位秒
+     */
+    private long stageLeadSeconds = 300;
+
+    /**
+     * 预加载任务的执行间隔，单位毫秒
+     */
+    private long stageIntervalMillis = 60000;
+}
@@ -8,6 +8,7 @@ import com.hmdp.entity.Blog;
 import com.hmdp.entity.User;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FeedFanout;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -15,6 +16,7 @@ import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 探店笔记
@@ -26,6 +28,9 @@ public class BlogController {
     @Resource
     private IBlogService blogService;
 
+    @Resource
+    private FeedFanout feedFanout;
+
     /**
      * 保存探店笔记
      */
@@ -100,8 +105,21 @@ public class BlogController {
      */
     @GetMapping("/of/follow")
     public Result queryBlogOfFollow(
-            @RequestParam("lastId") Long max,@RequestParam(value = "offset", defaultValue = "0") Integer offset){
-        return blogService.queryBlogOfFollow(max, offset);
+            @RequestParam("lastId") Long max,@RequestParam(value = "offset", defaultValue = "0") Integer offset,
+            @RequestParam(value = "size", required = false) Integer size){
+        return blogService.queryBlogOfFollow(max, offset, size);
+    }
+
+    /**
+     * 笔记推送给粉丝的进度
+     */
+    @GetMapping("/{id}/fanout")
+    public Result queryFanoutProgress(@PathVariable("id") Long id) {
+        Map<String, Object> progress = feedFanout.progress(id);
+        if (progress == null) {
+            return Result.fail("推送记录不存在或已过期！");
+        }
+        return Result.ok(progress);
     }
 
 }
@@ -0,0 +1,99 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.BloomFilterGuard;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidationPipeline;
+import com.hmdp.utils.CacheWarmUpRunner;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RebuildScheduler;
+import com.hmdp.utils.LocalCache;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存运行状态
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private LocalCache localCache;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
+    @Resource
+    private CacheWarmUpRunner cacheWarmUpRunner;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheInvalidationPipeline cacheInvalidationPipeline;
+
+    @Resource
+    private RebuildScheduler rebuildScheduler;
+
+    /**
+     * 本地缓存各前缀的命中、未命中次数，提前刷新、缓存失效和缓存重建统计
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("local", localCache.stats());
+        stats.put("earlyRefresh", cacheClient.earlyRefreshStats());
+        stats.put("invalidation", cacheInvalidationPipeline.stats());
+        stats.put("rebuild", rebuildScheduler.stats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 当前热点key、访问次数最多的key及本地副本命中率
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.stats());
+    }
+
+    /**
+     * 后台重建布隆过滤器，重建期间继续使用旧的过滤器
+     */
+    @PostMapping("/bloom/rebuild")
+    public Result rebuildBloomFilter() {
+        bloomFilterGuard.rebuildAsync();
+        return Result.ok();
+    }
+
+    /**
+     * 缓存预热进度
+     */
+    @GetMapping("/warmup")
+    public Result warmUpStatus() {
+        return Result.ok(cacheWarmUpRunner.status());
+    }
+
+    /**
+     * 就绪探针，预热结束前返回503，负载均衡据此摘除未预热的实例
+     */
+    @GetMapping("/ready")
+    public ResponseEntity<Result> ready() {
+        if (!cacheWarmUpRunner.isReady()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Result.fail("缓存预热中"));
+        }
+        return ResponseEntity.ok(Result.ok());
+    }
+}
@@ -7,6 +7,7 @@ import com.hmdp.service.IVoucherService;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 /**
  * 优惠券
@@ -40,6 +41,18 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 批量新增秒杀券
+     * @param vouchers 优惠券信息，包含秒杀信息
+     * @param stage 是否立即写入redis库存，false时在秒杀开始前自动写入
+     * @return 优惠券id列表
+     */
+    @PostMapping("seckill/batch")
+    public Result addSeckillVouchers(@RequestBody List<Voucher> vouchers,
+                                     @RequestParam(value = "stage", defaultValue = "true") Boolean stage) {
+        return Result.ok(voucherService.addSeckillVouchers(vouchers, stage));
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
@@ -3,10 +3,16 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.OrderStreamManager;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillGuard;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
 
@@ -19,10 +25,53 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillGuard seckillGuard;
+
+    @Resource
+    private OrderStreamManager orderStreamManager;
+
+    @Resource
+    private SeckillAdmission seckillAdmission;
+
 
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         //return Result.fail("功能未完成");
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询订单处理结果：queued、persisted、duplicate、failed
+     * @param timeout 仍在排队时最多等待的毫秒数，0表示立即返回
+     */
+    @GetMapping("{id}/status")
+    public DeferredResult<Result> orderStatus(@PathVariable("id") Long orderId,
+                                              @RequestParam(value = "timeout", defaultValue = "0") Long timeout) {
+        return voucherOrderService.queryOrderStatus(orderId, timeout);
+    }
+
+    /**
+     * 本地已售罄的秒杀券和本地拦截的请求数
+     */
+    @GetMapping("stats")
+    public Result stats() {
+        return Result.ok(seckillGuard.stats());
+    }
+
+    /**
+     * 订单消息队列的长度、消费延迟、未确认消息数、消费者空闲时间和死信数
+     */
+    @GetMapping("stream")
+    public Result streamStats() {
+        return Result.ok(orderStreamManager.stats());
+    }
+
+    /**
+     * 秒杀准入控制放行、拒绝和排队的请求数
+     */
+    @GetMapping("admission")
+    public Result admissionStats() {
+        return Result.ok(seckillAdmission.stats());
+    }
 }
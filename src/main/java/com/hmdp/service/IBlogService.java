@@ -16,5 +16,5 @@ public interface IBlogService extends IService<Blog> {
 
     Result saveBlog(Blog blog);
 
-    Result queryBlogOfFollow(Long max, Integer offset);
+    Result queryBlogOfFollow(Long max, Integer offset, Integer size);
 }
@@ -3,6 +3,9 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
 
 /**
  * 秒杀优惠券
@@ -11,5 +14,20 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherOrder);
+    /**
+     * 保存单个订单
+     * @return 处理结果，见OrderStatusStore
+     */
+    String createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 一个事务中批量保存订单
+     * @return 因用户已下过单而未保存的订单
+     */
+    List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 查询当前用户订单的处理结果，订单仍在排队时最多等待timeoutMillis
+     */
+    DeferredResult<Result> queryOrderStatus(Long orderId, long timeoutMillis);
 }
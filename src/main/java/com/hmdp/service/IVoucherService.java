@@ -4,10 +4,19 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 
 public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
     void addSeckillVoucher(Voucher voucher);
+
+    /**
+     * 批量新增秒杀券
+     * @param stage 是否立即写入redis库存，否则由预加载任务在秒杀开始前写入
+     * @return 优惠券id
+     */
+    List<Long> addSeckillVouchers(List<Voucher> vouchers, boolean stage);
 }
@@ -4,32 +4,44 @@ import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.config.FeedProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterGuard;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.HybridFeed;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import jdk.internal.org.objectweb.asm.tree.analysis.Value;
 import org.aspectj.weaver.ast.Var;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 import sun.security.provider.certpath.PKIXTimestampParameters;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
@@ -41,7 +53,39 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private IFollowService followService;
+    private BloomFilterGuard bloomFilterGuard;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private HybridFeed hybridFeed;
+
+    @Resource
+    private FeedProperties feedProperties;
+
+    /**
+     * 关注流并行查询点赞状态的线程池，线程数由hmdp.feed.hydrate-threads指定
+     */
+    private ExecutorService feedHydrateExecutor;
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger index = new AtomicInteger();
+        feedHydrateExecutor = Executors.newFixedThreadPool(Math.max(1, feedProperties.getHydrateThreads()), r -> {
+            Thread thread = new Thread(r, "feed-hydrate-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    private void destroy() {
+        feedHydrateExecutor.shutdownNow();
+    }
 
     /**
      * 查看热点笔记
@@ -52,11 +96,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         Page<Blog> page = query().orderByDesc("liked").page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        // 批量查询用户
+        queryBlogUsers(records);
+        isBlogsLiked(records);
         return Result.ok(records);
     }
 
@@ -65,6 +107,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      */
     @Override
     public Result queryBlogById(Long id) {
+        //0.布隆过滤器判断笔记一定不存在，直接返回
+        if (!bloomFilterGuard.mightContain(BloomFilterGuard.BLOG, id)) {
+            return Result.fail("笔记不存在！");
+        }
         //1.查询blog
         Blog blog = getById(id);
         if (blog == null) {
@@ -81,17 +127,61 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      * 查看笔记是否已被点赞
      */
     private void isBlogLiked(Blog blog) {
+        isBlogsLiked(Collections.singletonList(blog));
+    }
+
+    /**
+     * 批量查看笔记是否已被当前用户点赞
+     */
+    private void isBlogsLiked(List<Blog> blogs) {
         // 1.获取当前登录用户id
         UserDTO user = UserHolder.getUser();
-        if (user == null) {
+        if (user == null || blogs.isEmpty()) {
             //用户未登录
             return;
         }
-        Long userId = user.getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        // 2.批量判断当前登录用户是否已经点赞
+        Map<Long, Boolean> liked = queryLiked(user.getId(),
+                blogs.stream().map(Blog::getId).collect(Collectors.toList()));
+        for (Blog blog : blogs) {
+            blog.setIsLike(liked.get(blog.getId()));
+        }
+    }
+
+    /**
+     * 查询用户对一批笔记的点赞状态
+     * 热点笔记读取本地副本，其余笔记的ZSCORE通过pipeline一次发送
+     * @return 笔记id -> 是否已点赞
+     */
+    private Map<Long, Boolean> queryLiked(Long userId, List<Long> blogIds) {
+        Map<Long, Boolean> liked = new HashMap<>(blogIds.size() * 2);
+        List<Long> misses = new ArrayList<>(blogIds.size());
+        for (Long blogId : blogIds) {
+            String key = BLOG_LIKED_KEY + blogId;
+            if (hotKeyDetector.isHot(key)) {
+                //未点赞时score为null，用Optional缓存
+                Optional<Double> score = hotKeyDetector.read(key, HotKeyDetector.replicaKey(key, userId),
+                        () -> Optional.ofNullable(stringRedisTemplate.opsForZSet().score(key, userId.toString())));
+                liked.put(blogId, score.isPresent());
+            } else {
+                hotKeyDetector.record(key);
+                misses.add(blogId);
+            }
+        }
+        if (misses.isEmpty()) {
+            return liked;
+        }
+        byte[] member = userId.toString().getBytes(StandardCharsets.UTF_8);
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long blogId : misses) {
+                connection.zSetCommands().zScore((BLOG_LIKED_KEY + blogId).getBytes(StandardCharsets.UTF_8), member);
+            }
+            return null;
+        });
+        for (int i = 0; i < misses.size(); i++) {
+            liked.put(misses.get(i), scores.get(i) != null);
+        }
+        return liked;
     }
 
     /**
@@ -111,6 +201,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 3.2，保存用户到Redis的set集合 zadd key value score
             if (isSuccess){
                 stringRedisTemplate.opsForZSet().add(key,userId.toString(),System.currentTimeMillis());
+                hotKeyDetector.invalidate(key);
             }
         }else {
             // 4.如果已点赞，取消点赞
@@ -119,6 +210,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             // 4.2.将用户从Redis的set集台移除
             if (isSuccess){
                 stringRedisTemplate.opsForZSet().remove(key,userId.toString());
+                hotKeyDetector.invalidate(key);
             }
         }
         return Result.ok();
@@ -132,7 +224,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogLikes(Long id) {
         String key = BLOG_LIKED_KEY + id;
         // 1.查询top5的点赞用户 zrange key 04
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
+        Set<String> top5 = hotKeyDetector.read(key, HotKeyDetector.replicaKey(key, "top5"),
+                () -> stringRedisTemplate.opsForZSet().range(key, 0, 4));
         if (top5 == null || top5.isEmpty()){
             return Result.ok(Collections.emptyList());
         }
@@ -160,67 +253,54 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess) {
             return Result.fail("笔记保存失败！");
         }
-        //3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        //4.推送笔记给所有粉丝
-        for (Follow follow : follows) {
-            //4.1获取粉丝id
-            Long userId = follow.getUserId();
-            //4.2推送笔记
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
-        //5.返回id
+        bloomFilterGuard.add(BloomFilterGuard.BLOG, blog.getId());
+        //3.发布笔记：普通作者异步分批推送到粉丝收件箱，大V只写入自己的发件箱
+        hybridFeed.publish(blog.getId(), user.getId(), System.currentTimeMillis());
+        //4.返回id
         return Result.ok(blog.getId());
     }
 
     /**
      * 关注用户笔记滚动显示
+     * 点赞状态与笔记、作者并行查询，每页的查询次数与每页数量无关
      */
     @Override
-    public Result queryBlogOfFollow(Long max, Integer offset) {
+    public Result queryBlogOfFollow(Long max, Integer offset, Integer size) {
         //1.获取当前用户id
         Long userId = UserHolder.getUser().getId();
-        //2.查询收件箱
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        int pageSize = size == null ? feedProperties.getPageSize()
+                : Math.max(1, Math.min(size, feedProperties.getMaxPageSize()));
+        //2.合并收件箱和关注的大V发件箱
+        HybridFeed.FeedPage page = hybridFeed.read(userId, max, offset, pageSize);
         //3.非空判断
-        if(typedTuples == null || typedTuples.isEmpty()) {
+        List<Long> ids = page.getIds();
+        if(ids.isEmpty()) {
             return Result.ok();
         }
-        //4.解析数据 blogI, minTme(时间戳),offset(偏移量)
-        List<Long> ids = new ArrayList<Long>(typedTuples.size());
-        //初始时间戳
-        long minTime = 0;
-        //初始偏移量
-        int os = 1;
-        for (ZSetOperations.TypedTuple<String> tuple : typedTuples) {
-            //4.1获取id
-            ids.add(Long.valueOf(tuple.getValue()));
-            //4.2获取分数（时间戳）
-            long time = tuple.getScore().longValue();
-            if (time == minTime){
-                os++;
-            } else {
-                minTime = time;
-                os = 1;
+        //4.异步pipeline查询点赞状态
+        CompletableFuture<Map<Long, Boolean>> likedFuture =
+                CompletableFuture.supplyAsync(() -> queryLiked(userId, ids), feedHydrateExecutor);
+        //5.根据id批量查询blog，按关注流顺序排列，已删除的笔记跳过
+        Map<Long, Blog> blogMap = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, blog -> blog));
+        List<Blog> blogs = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogMap.get(id);
+            if (blog != null) {
+                blogs.add(blog);
             }
         }
-        //5.根据id查询blog
-        String idStr = StrUtil.join(",",ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        //5.1批量查询blog相关的用户
+        queryBlogUsers(blogs);
+        //5.2填充点赞状态
+        Map<Long, Boolean> liked = likedFuture.join();
         for (Blog blog : blogs) {
-            //5.1查询blog相关的用户
-            queryBlogUser(blog);
-            //5.2查看笔记是否已经被点赞
-            isBlogLiked(blog);
+            blog.setIsLike(liked.get(blog.getId()));
         }
         //6.封装并返回
         ScrollResult r = new ScrollResult();
         r.setList(blogs);
-        r.setOffset(os);
-        r.setMinTime(minTime);
+        r.setOffset(page.getOffset());
+        r.setMinTime(page.getMinTime());
         return Result.ok(r);
     }
 
@@ -228,9 +308,30 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
      * 查询博客用户信息，并将信息保存入博客信息
      */
     private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+        queryBlogUsers(Collections.singletonList(blog));
+    }
+
+    /**
+     * 批量查询博客用户信息
+     * 用户信息走缓存批量查询，未命中的用户一次IN查询数据库
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = cacheClient.queryBatch(CACHE_USER_KEY, userIds, UserDTO.class,
+                        ids -> userService.listByIds(ids).stream()
+                                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                        CACHE_USER_TTL, TimeUnit.MINUTES)
+                .stream()
+                .collect(Collectors.toMap(UserDTO::getId, user -> user));
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
     }
 }
@@ -9,6 +9,7 @@ import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HybridFeed;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.BeanUtils;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -32,6 +33,9 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Resource
     private IUserService userService;
 
+    @Resource
+    private HybridFeed hybridFeed;
+
     /**
      * 关注 or 取关
      */
@@ -50,12 +54,16 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
             if (isSuccess){
                 //将关注的用户id保存入redis中
                 stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+                hybridFeed.adjustFans(followUserId, 1);
             }
         }else {
             //4.取关操作，删除数据 delete tb_from follow where user_id = ? and follow_user_id = ?
-            remove(new QueryWrapper<Follow>().eq("user_id", userId).eq("follow_user_id",followUserId));
-            //将关注的用户从redis中移除
-            stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+            boolean isSuccess = remove(new QueryWrapper<Follow>().eq("user_id", userId).eq("follow_user_id",followUserId));
+            if (isSuccess){
+                //将关注的用户从redis中移除
+                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+                hybridFeed.adjustFans(followUserId, -1);
+            }
         }
         return Result.ok();
     }
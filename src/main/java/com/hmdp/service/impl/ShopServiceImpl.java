@@ -1,18 +1,23 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.config.CacheProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.BloomFilterGuard;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LocalChangeEventSource;
+import com.hmdp.utils.RebuildScheduler;
 import com.hmdp.utils.RedisData;
 import com.hmdp.utils.SystemConstants;
 import com.sun.corba.se.spi.orbutil.fsm.Guard;
@@ -28,6 +33,8 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.validation.beanvalidation.OptionalValidatorFactoryBean;
 import org.xml.sax.EntityResolver;
 import sun.security.provider.certpath.PKIXTimestampParameters;
@@ -38,9 +45,8 @@ import javax.lang.model.element.VariableElement;
 import java.beans.Transient;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -56,17 +62,43 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
-    @Override
-    public Result queryById(Long id) {
-        //缓存穿透
-        //Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    @Resource
+    private CacheProperties cacheProperties;
+
+    @Resource
+    private BloomFilterGuard bloomFilterGuard;
+
+    @Resource
+    private LocalChangeEventSource localChangeEventSource;
 
-        //互斥锁解决缓存击穿
-        //Shop shop = queryWithMutex(id);
-        Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    @Resource
+    private RebuildScheduler rebuildScheduler;
 
-        //逻辑过期解决缓存击穿
-        //Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 10L, TimeUnit.SECONDS);
+    @Override
+    public Result queryById(Long id) {
+        //布隆过滤器判断店铺一定不存在，直接返回
+        if(!bloomFilterGuard.mightContain(BloomFilterGuard.SHOP, id)){
+            return Result.fail("店铺信息不存在！");
+        }
+        //按配置选择缓存策略，默认互斥锁
+        Shop shop;
+        switch (cacheProperties.getShopStrategy()) {
+            case "pass-through":
+                //缓存穿透
+                shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                break;
+            case "logical":
+                //逻辑过期解决缓存击穿
+                shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, 10L, TimeUnit.SECONDS);
+                break;
+            case "early-refresh":
+                //概率提前刷新解决缓存击穿
+                shop = cacheClient.queryWithEarlyRefresh(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                break;
+            default:
+                //互斥锁解决缓存击穿
+                shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
 
         if(shop == null){
             return Result.fail("店铺信息不存在！");
@@ -160,9 +192,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
-    //缓存重建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     /**
      * 逻辑过期解决缓存过期
      */
@@ -185,26 +214,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             //5.1未过期，返回店铺信息
             return shop;
         }
-        //6.缓存重建
-        //6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //6.2判断是否获取成功
-        if(isLock){
-            //6.3获取成功，开启线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                    //缓存重建
-                    this.SaveShopRedis(id,20L);
-                }  catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放互斥锁
-                    unlock(lockKey);
-                }
-            });
-        }
-        //6.4获取失败，返回过期店铺信息
+        //6.缓存重建，交给重建调度器
+        rebuildScheduler.submit(CACHE_SHOP_KEY, key, () -> {
+            //6.1获取互斥锁
+            String lockKey = LOCK_SHOP_KEY + id;
+            if(!tryLock(lockKey)){
+                return;
+            }
+            try {
+                //6.2缓存重建
+                this.SaveShopRedis(id,20L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                //6.3释放互斥锁
+                unlock(lockKey);
+            }
+        });
+        //7.返回过期店铺信息
         return shop;
     }
 
@@ -246,12 +273,23 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id == null){
             return Result.fail("店铺id不存在");
         }
-        String key = CACHE_SHOP_KEY + id;
         //1.更新数据库
         updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(key);
-        //3.放回结果
+        //2.事务提交后删除缓存，不依赖变更事件处理是否开启
+        String key = CACHE_SHOP_KEY + id;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cacheClient.delete(key);
+                }
+            });
+        } else {
+            cacheClient.delete(key);
+        }
+        //3.发布变更事件，开启cdc-enabled时由CacheInvalidationPipeline延迟再删除一次
+        localChangeEventSource.publish("tb_shop", "UPDATE", id);
+        //4.放回结果
         return Result.ok();
     }
 
@@ -306,12 +344,30 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             distanceMap.put(shopIdStr, distance);
         });
         // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        List<Shop> shops = queryShopsByIds(ids);
         for (Shop shop : shops) {
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
         }
         // 6.返回
         return Result.ok(shops);
     }
+
+    /**
+     * 按id顺序批量查询店铺
+     * 店铺缓存为普通格式时走缓存批量查询，逻辑过期等带过期时间的格式直接查询数据库
+     * 缓存中的对象会被共享，返回前复制一份，避免设置距离时互相影响
+     */
+    private List<Shop> queryShopsByIds(List<Long> ids) {
+        String strategy = cacheProperties.getShopStrategy();
+        if (!"mutex".equals(strategy) && !"pass-through".equals(strategy)) {
+            String idStr = StrUtil.join(",", ids);
+            return query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        }
+        return cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class,
+                        missing -> listByIds(missing).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                        CACHE_SHOP_TTL, TimeUnit.MINUTES)
+                .stream()
+                .map(shop -> BeanUtil.copyProperties(shop, Shop.class))
+                .collect(Collectors.toList());
+    }
 }
@@ -1,36 +1,54 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.OrderLock;
+import com.hmdp.utils.OrderStatusStore;
+import com.hmdp.utils.OrderStreamManager;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillGuard;
+import com.hmdp.utils.SeckillStockShards;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.aspectj.weaver.ast.Var;
-import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 /**
  * @author 神様
@@ -61,36 +79,127 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
 
 
-    //异步下单线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    /**
+     * 秒杀库存分片
+     */
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    /**
+     * 一人一单锁，按用户加锁
+     */
+    @Resource
+    private OrderLock orderLock;
+
+    /**
+     * 订单消息队列的裁剪、认领和死信
+     */
+    @Resource
+    private OrderStreamManager orderStreamManager;
+
+    /**
+     * 订单处理结果
+     */
+    @Resource
+    private OrderStatusStore orderStatusStore;
+
+    /**
+     * 本地售罄和秒杀时间判断
+     */
+    @Resource
+    private SeckillGuard seckillGuard;
+
+    /**
+     * 当前对象的代理对象(事务)，消费者线程中调用事务方法
+     */
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+
+    /**
+     * 消息队列名
+     */
+    String queueName = RedisConstants.ORDER_STREAM_KEY;
+
+    /**
+     * 消费者组名
+     */
+    private static final String GROUP_NAME = RedisConstants.ORDER_STREAM_GROUP;
+
+    //异步下单线程池，每个消费者一个线程
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running = true;
 
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        createGroup();
+        int consumers = seckillProperties.getConsumers();
+        String prefix = StrUtil.isBlank(seckillProperties.getConsumerPrefix())
+                ? NetUtil.getLocalHostName() : seckillProperties.getConsumerPrefix();
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumers);
+        for (int i = 0; i < consumers; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(prefix + "-c" + i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        running = false;
+        seckillOrderExecutor.shutdownNow();
     }
 
     /**
-     * 消息队列名
+     * 创建消费者组 XGROUP CREATE stream.orders g1 0 MKSTREAM，已存在时忽略
      */
-    String queueName = "stream.orders";
+    private void createGroup(){
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    queueName.getBytes(StandardCharsets.UTF_8), GROUP_NAME, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            log.debug("消费者组已存在，group={}", GROUP_NAME);
+        }
+    }
+
     /**
-     * 创建阻塞队列，并将订单信息保存入阻塞队列
-     * 基于lua脚本语言实现
+     * 从stream消息队列批量读取订单，一批订单在一个事务中多行插入、按优惠券汇总扣减库存，然后一次ACK
+     * 批量保存失败时逐条保存，保存失败的消息不ACK，留在PendingList中
      */
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
     private class VoucherOrderHandler implements Runnable{
 
+        /**
+         * 消费者名称，同一组内唯一
+         */
+        private final String consumerName;
+
+        /**
+         * 上次扫描PendingList的时间
+         */
+        private long lastClaimMillis;
+
+        VoucherOrderHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
         @Override
         public void run() {
-            while (true){
+            //启动时先处理上次未确认的消息
+            handlePendinglist();
+            while (running){
                 try {
-                    //1.获取消息队列中的订单信息 XREADGROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.order >
+                    //0.定期认领空闲的未确认消息(包括其他节点的)，投递次数过多的转入死信队列
+                    if (System.currentTimeMillis() - lastClaimMillis >= seckillProperties.getClaimIntervalMillis()) {
+                        lastClaimMillis = System.currentTimeMillis();
+                        orderStreamManager.claimIdle(consumerName, this::handleRecord);
+                    }
+                    //1.获取消息队列中的订单信息 XREADGROUP g1 consumerName COUNT n BLOCK 2000 STREAMS streams.order >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            //XREADGROUP g1 c1
-                            Consumer.from("g1", "c1"),
-                            //COUNT 1 BLOCK 2000
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            //STREAMS streams.order >
+                            Consumer.from(GROUP_NAME, consumerName),
+                            StreamReadOptions.empty().count(seckillProperties.getBatchSize())
+                                    .block(Duration.ofMillis(seckillProperties.getBlockMillis())),
                             StreamOffset.create(queueName, ReadOffset.lastConsumed())
                     );
                     //2.判断消息后是否获取成功
@@ -98,56 +207,99 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         //获取失败，队列中没有消息，继续下一轮循环
                         continue;
                     }
-                    //3.从消息队列中解析订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4.获取成功，保存订单信息
-                    handleVoucherOrder(voucherOrder);
-                    //5.ACK确认，确保消息已经处理完成 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    //3.批量保存并ACK
+                    handleBatch(list);
                 } catch (Exception e) {
+                    if (!running) {
+                        return;
+                    }
                     log.error("处理订单异常", e);
                     handlePendinglist();
                 }
             }
         }
 
+        private void handleBatch(List<MapRecord<String, Object, Object>> records) {
+            List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+            for (MapRecord<String, Object, Object> record : records) {
+                voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            }
+            Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+            List<VoucherOrder> duplicates;
+            try {
+                //1.持有本批用户的锁，一个事务中保存整批订单
+                duplicates = orderLock.execute(userIds, () -> proxy.createVoucherOrders(voucherOrders));
+            } catch (Exception e) {
+                //2.批量保存失败，逐条保存，隔离出错的消息
+                log.warn("批量保存订单失败，逐条处理，size={}", records.size(), e);
+                for (MapRecord<String, Object, Object> record : records) {
+                    handleRecord(record);
+                }
+                return;
+            }
+            //3.记录处理结果
+            Map<VoucherOrder, String> statuses = new LinkedHashMap<>(voucherOrders.size() * 2);
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                statuses.put(voucherOrder, duplicates.contains(voucherOrder)
+                        ? OrderStatusStore.DUPLICATE : OrderStatusStore.PERSISTED);
+            }
+            orderStatusStore.record(statuses);
+            //4.ACK确认整批消息 XACK stream.orders g1 id1 id2 ...，必要时裁剪消息队列
+            RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            orderStreamManager.acknowledge(ids);
+        }
+
+        /**
+         * 保存单条消息，成功后ACK，失败时留在PendingList中
+         */
+        private boolean handleRecord(MapRecord<String, Object, Object> record) {
+            try {
+                VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+                String status = orderLock.execute(Collections.singleton(voucherOrder.getUserId()),
+                        () -> proxy.createVoucherOrder(voucherOrder));
+                orderStatusStore.record(Collections.singletonMap(voucherOrder, status));
+            } catch (DuplicateKeyException e) {
+                //其他节点并发保存时仍可能出现唯一索引冲突，说明已经保存过
+                log.debug("订单已保存，recordId={}", record.getId());
+            } catch (Exception e) {
+                log.error("保存订单失败，recordId={}", record.getId(), e);
+                return false;
+            }
+            orderStreamManager.acknowledge(record.getId());
+            return true;
+        }
+
         /**
          * 处理消息队列中出现异常的消息
-         * PendingList
+         * 按id顺序遍历一遍本消费者的PendingList，仍然失败的消息留到下次处理
          */
         private void handlePendinglist() {
-            while (true){
+            String offset = "0";
+            while (running){
                 try {
-                    //1.获取消息队列中的订单信息 XREADGROUP g1 c1 COUNT 1 STREAMS streams.order 0
+                    //1.获取PendingList中的订单信息 XREADGROUP g1 consumerName COUNT n STREAMS streams.order offset
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            //XREADGROUP g1 c1
-                            Consumer.from("g1", "c1"),
-                            //COUNT 1
-                            StreamReadOptions.empty().count(1),
-                            //STREAMS streams.order 0
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
+                            Consumer.from(GROUP_NAME, consumerName),
+                            StreamReadOptions.empty().count(seckillProperties.getBatchSize()),
+                            StreamOffset.create(queueName, ReadOffset.from(offset))
                     );
                     //2.判断消息后是否获取成功
                     if(list == null || list.isEmpty()){
                         //获取失败，PendingList中没有异常消息，结束循环
                         break;
                     }
-                    //3.从消息队列中解析订单信息
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> values = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
-                    //4.获取成功，保存订单信息
-                    handleVoucherOrder(voucherOrder);
-                    //5.ACK确认，确保消息已经处理完成 SACK stream.orders g1 id
-                    stringRedisTemplate.opsForStream().acknowledge(queueName,"g1",record.getId());
+                    //3.逐条保存
+                    for (MapRecord<String, Object, Object> record : list) {
+                        handleRecord(record);
+                        offset = record.getId().getValue();
+                    }
                 } catch (Exception e) {
                     log.error("处理PendingList订单异常", e);
                     try {
                         Thread.sleep(20);
                     } catch (InterruptedException ex) {
-                        ex.printStackTrace();
+                        Thread.currentThread().interrupt();
+                        return;
                     }
                 }
             }
@@ -175,29 +327,6 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }*/
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //获取用户Id
-        Long userId = voucherOrder.getUserId();
-        //创建锁对象
-        RLock lock = redissonClient.getLock("lock:order:");
-        //获取锁
-        boolean isLock = lock.tryLock();
-        //判断是否获取成功
-        if(!isLock){
-            //获取失败
-            log.error("订单异常");
-            return;
-        }
-        try {
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            //模拟延迟时间5000毫秒
-            //Thread.sleep(5000);
-            //释放锁
-            lock.unlock();
-        }
-    }
-
     /**
      * 提前加载秒杀优惠券的lua脚本
      */
@@ -208,35 +337,63 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
 
-    private IVoucherOrderService proxy;
-
     /**
      * 秒杀优惠券下单——基于lua脚本语言实现
      * 将订单信息写入stream消息队列
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
+        //0.本地判断是否售罄、秒杀是否开始或结束，不访问redis
+        String reason = seckillGuard.check(voucherId);
+        if (reason != null) {
+            return Result.fail(reason);
+        }
         //获取用户Id
         Long userId = UserHolder.getUser().getId();
         //订单Id-全局唯一Id
         long orderId = redisIdWorker.nextId("order");
         //1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                //为脚本传参数 优惠券Id、用户Id、订单Id
-                voucherId.toString(), userId.toString() ,String.valueOf(orderId)
-        );
+        int r;
+        int shards = seckillStockShards.shards(voucherId);
+        if (shards > 1) {
+            //1.1库存分片，按用户所属分片扣减，成功后写入消息队列 XADD stream.orders * userId voucherId id
+            int shard = seckillStockShards.reserve(voucherId, userId, shards);
+            r = shard >= 0 ? 0 : -shard;
+            if (r == 0) {
+                Map<String, String> values = new HashMap<>(4);
+                values.put("userId", userId.toString());
+                values.put("voucherId", voucherId.toString());
+                values.put("id", String.valueOf(orderId));
+                try {
+                    orderStatusStore.queued(orderId, userId);
+                    stringRedisTemplate.opsForStream().add(StreamRecords.mapBacked(values).withStreamKey(queueName));
+                } catch (RuntimeException e) {
+                    //写入消息队列失败，归还库存并撤销用户记录，否则库存丢失且用户无法再次下单
+                    seckillStockShards.release(voucherId, userId, shards, shard);
+                    throw e;
+                }
+            }
+        } else {
+            //1.2未分片
+            Long result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    //为脚本传参数 优惠券Id、用户Id、订单Id、订单状态保存时间
+                    voucherId.toString(), userId.toString() ,String.valueOf(orderId),
+                    String.valueOf(seckillProperties.getOrderStatusTtlSeconds())
+            );
+            r = result.intValue();
+        }
         //2.判断结果是否为0
-        int r = result.intValue();
         if (r != 0) {
-            //不为0，没有购买资格
+            //不为0，没有购买资格，库存不足时通知所有节点
+            if (r == 1) {
+                seckillGuard.markSoldOut(voucherId);
+            }
             return Result.fail(r ==1 ? "库存不足！" : "不能重复下单！");
         }
-        //结果为0，有购买资格，将下单信息保存到消息队列
-        //3.获取当前对象的代理对象(事务)，避免事务失效
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        //4.返回订单Id
+        //结果为0，有购买资格，下单信息已由脚本写入消息队列
+        //3.返回订单Id
         return Result.ok(orderId);
 
     }
@@ -329,46 +486,122 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
     }*/
 
+    /**
+     * 批量保存订单，重复投递的消息可以安全地再次保存
+     * 按优惠券分组，每组在同一个事务中：
+     * 1.INSERT IGNORE多行插入，订单id(主键)或(user_id, voucher_id)(uk_user_voucher)已存在的行被忽略，
+     *   重复的消息只需一次索引查找，不再先查询订单数
+     * 2.按实际插入的行数扣减库存 stock = stock - n，库存不足时整批回滚，由调用方逐条处理
+     * 按优惠券id顺序更新库存，避免多个消费者相互死锁
+     */
     @Transactional
     @Override
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-        //5一人一单
-        Long userId = voucherOrder.getUserId();
-        //5.1查询订单
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        //5.2判断订单是否唯一，优惠券Id与用户Id唯一
-        if (count > 0) {
-            //用户已经下过单
-            log.error("订单异常");
-            return;
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, List<VoucherOrder>> byVoucher = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, TreeMap::new, Collectors.toList()));
+        List<VoucherOrder> ignored = new ArrayList<>();
+        byVoucher.forEach((voucherId, orders) -> {
+            //1.幂等插入
+            int inserted = getBaseMapper().insertIgnoreBatch(orders);
+            if (inserted < orders.size()) {
+                log.debug("忽略已保存或重复下单的订单{}条，voucherId={}", orders.size() - inserted, voucherId);
+                ignored.addAll(orders);
+            }
+            //2.按插入行数扣减库存
+            if (inserted > 0 && !decreaseStock(voucherId, inserted)) {
+                throw new IllegalStateException("库存不足，voucherId=" + voucherId + "，count=" + inserted);
+            }
+        });
+        if (ignored.isEmpty()) {
+            return Collections.emptyList();
         }
+        //3.有被忽略的订单时按主键查询，订单id已存在的是重复投递(已保存)，其余是用户已下过其他订单
+        Set<Long> saved = query().select("id")
+                .in("id", ignored.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .list().stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+        return ignored.stream().filter(order -> !saved.contains(order.getId())).collect(Collectors.toList());
+    }
 
-        //6.扣减库存
-        boolean success = seckillVoucherService.update()
-                // 库存减一
-                .setSql("stock = stock -1")
-                .eq("voucher_id", voucherOrder.getVoucherId())
-                /**
-                 * where id = ? and stock > 0
-                 * 使用乐观锁解决超卖问题
-                 */
-                .gt("stock",0)
-                .update();
-        if (! success) {
-            //扣减失败
-            log.error("订单异常");
-            return;
+    /**
+     * 保存单个订单，与批量保存相同，先幂等插入再按插入行数扣减库存
+     */
+    @Transactional
+    @Override
+    public String createVoucherOrder(VoucherOrder voucherOrder) {
+        //1.幂等插入，订单已保存或用户已下过单时忽略
+        if (getBaseMapper().insertIgnoreBatch(Collections.singletonList(voucherOrder)) == 0) {
+            log.debug("订单已保存或重复下单，orderId={}", voucherOrder.getId());
+            return getById(voucherOrder.getId()) != null ? OrderStatusStore.PERSISTED : OrderStatusStore.DUPLICATE;
+        }
+        //2.扣减库存，库存不足时回滚插入的订单
+        if (!decreaseStock(voucherOrder.getVoucherId(), 1)) {
+            log.error("订单异常，库存不足，orderId={}", voucherOrder.getId());
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return OrderStatusStore.FAILED;
         }
-        ////7.创建订单
-        //VoucherOrder voucherOrder = new VoucherOrder();
-        ////订单Id-全局唯一Id
-        //long orderId = redisIdWorker.nextId("order");
-        //voucherOrder.setId(orderId);
-        ////用户Id
-        //voucherOrder.setUserId(userId);
-        ////代金券Id
-        //voucherOrder.setVoucherId(voucherOrder);
-        //保存订单信息
-        save(voucherOrder);
+        return OrderStatusStore.PERSISTED;
+    }
+
+    /**
+     * 查询订单处理结果
+     * 1.优先读取redis中的处理结果，已过期时查询数据库
+     * 2.仍在排队且指定了等待时间时长轮询，消费者保存后通过发布订阅唤醒，超时返回当前状态
+     */
+    @Override
+    public DeferredResult<Result> queryOrderStatus(Long orderId, long timeoutMillis) {
+        Long userId = UserHolder.getUser().getId();
+        DeferredResult<Result> result = new DeferredResult<>();
+        //1.读取处理结果
+        Map<Object, Object> status = orderStatusStore.get(orderId);
+        if (status.isEmpty()) {
+            //结果已过期或订单不存在，只剩数据库可查
+            VoucherOrder voucherOrder = getById(orderId);
+            if (voucherOrder == null || !voucherOrder.getUserId().equals(userId)) {
+                result.setResult(Result.fail("订单不存在！"));
+            } else {
+                result.setResult(Result.ok(orderStatus(orderId, OrderStatusStore.PERSISTED)));
+            }
+            return result;
+        }
+        if (!userId.toString().equals(status.get("u"))) {
+            result.setResult(Result.fail("订单不存在！"));
+            return result;
+        }
+        String current = (String) status.get("s");
+        long timeout = Math.min(timeoutMillis, seckillProperties.getOrderStatusMaxWaitMillis());
+        if (!OrderStatusStore.QUEUED.equals(current) || timeout <= 0) {
+            result.setResult(Result.ok(orderStatus(orderId, current)));
+            return result;
+        }
+        //2.长轮询
+        DeferredResult<Result> deferred = new DeferredResult<>(timeout, Result.ok(orderStatus(orderId, current)));
+        java.util.function.Consumer<String> callback = s -> deferred.setResult(Result.ok(orderStatus(orderId, s)));
+        deferred.onCompletion(() -> orderStatusStore.cancel(orderId, callback));
+        orderStatusStore.await(orderId, callback);
+        //注册前状态可能已经变化，再读一次
+        Object latest = orderStatusStore.get(orderId).get("s");
+        if (latest != null && !OrderStatusStore.QUEUED.equals(latest)) {
+            deferred.setResult(Result.ok(orderStatus(orderId, (String) latest)));
+        }
+        return deferred;
+    }
+
+    private static Map<String, Object> orderStatus(Long orderId, String status) {
+        Map<String, Object> data = new LinkedHashMap<>(4);
+        data.put("orderId", orderId.toString());
+        data.put("status", status);
+        return data;
+    }
+
+    /**
+     * update tb_seckill_voucher set stock = stock - count where voucher_id = ? and stock >= count
+     * 使用乐观锁解决超卖问题
+     */
+    private boolean decreaseStock(Long voucherId, long count) {
+        return seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
     }
 }
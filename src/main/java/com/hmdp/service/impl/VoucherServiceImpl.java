@@ -1,18 +1,27 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillGuard;
+import com.hmdp.utils.SeckillStockShards;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
@@ -28,6 +37,15 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private SeckillStockShards seckillStockShards;
+
+    @Resource
+    private SeckillGuard seckillGuard;
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -54,10 +72,75 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        //将秒杀优惠券保存到redis缓存中
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
-
+        //将秒杀优惠券保存到redis缓存中，指定分片数时库存拆分到多个key
+        int shards = voucher.getStockShards() == null ? seckillProperties.getStockShards() : voucher.getStockShards();
+        if (shards > 1) {
+            seckillStockShards.initStock(voucher.getId(), voucher.getStock(), shards);
+        } else {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        }
+        //事务提交后通知所有节点撤销缓存的"秒杀券不存在"
+        Long id = voucher.getId();
+        afterCommit(() -> seckillGuard.reset(id));
+    }
 
+    /**
+     * 批量新增秒杀券
+     * 1.两张表分别批量插入
+     * 2.需要分片的优惠券保存分片数
+     * 3.立即上架时pipeline批量写入库存，否则由SeckillPreStager在秒杀开始前写入
+     * 4.提交后广播：立即上架时消息带上秒杀时间，各节点直接缓存；否则撤销各节点缓存的秒杀券信息
+     */
+    @Override
+    @Transactional
+    public List<Long> addSeckillVouchers(List<Voucher> vouchers, boolean stage) {
+        //1.批量保存优惠券信息
+        saveBatch(vouchers);
+        //2.批量保存秒杀信息
+        List<SeckillVoucher> seckillVouchers = new ArrayList<>(vouchers.size());
+        Map<Long, Integer> shards = new HashMap<>();
+        for (Voucher voucher : vouchers) {
+            SeckillVoucher seckillVoucher = new SeckillVoucher();
+            seckillVoucher.setVoucherId(voucher.getId());
+            seckillVoucher.setStock(voucher.getStock());
+            seckillVoucher.setBeginTime(voucher.getBeginTime());
+            seckillVoucher.setEndTime(voucher.getEndTime());
+            seckillVouchers.add(seckillVoucher);
+            int count = voucher.getStockShards() == null ? seckillProperties.getStockShards() : voucher.getStockShards();
+            if (count > 1) {
+                shards.put(voucher.getId(), count);
+            }
+        }
+        seckillVoucherService.saveBatch(seckillVouchers);
+        //3.写入redis
+        if (stage) {
+            seckillStockShards.initStockBatch(seckillVouchers, shards, false);
+        } else {
+            seckillStockShards.saveShardCounts(shards);
+        }
+        //4.事务提交后通知所有节点：立即上架时缓存秒杀时间，否则撤销缓存的"秒杀券不存在"和售罄标记
+        List<Long> ids = vouchers.stream().map(Voucher::getId).collect(Collectors.toList());
+        if (stage) {
+            afterCommit(() -> seckillGuard.primeAll(seckillVouchers));
+        } else {
+            afterCommit(() -> seckillGuard.reset(ids));
+        }
+        return ids;
+    }
 
+    /**
+     * 事务提交后执行，不在事务中时立即执行
+     */
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
     }
 }
@@ -0,0 +1,42 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.AdminProperties;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 运维接口拦截器
+ * 只允许内部地址(hmdp.admin.allowed-addresses)或已登录的管理员(hmdp.admin.user-ids)访问，其他请求返回403
+ * 部署在反向代理之后时，代理需要拦截外部对这些接口的访问，remoteAddr此时为代理地址
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final AdminProperties adminProperties;
+
+    public AdminInterceptor(AdminProperties adminProperties) {
+        this.adminProperties = adminProperties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //1.内部地址
+        String address = request.getRemoteAddr();
+        for (String allowed : adminProperties.getAllowedAddresses()) {
+            boolean prefix = allowed.endsWith(".") || allowed.endsWith(":");
+            if (prefix ? address.startsWith(allowed) : address.equals(allowed)) {
+                return true;
+            }
+        }
+        //2.管理员用户
+        UserDTO user = UserHolder.getUser();
+        if (user != null && adminProperties.getUserIds().contains(user.getId())) {
+            return true;
+        }
+        //3.拒绝，返回403状态码
+        response.setStatus(403);
+        return false;
+    }
+}
@@ -0,0 +1,351 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * 紧凑的二进制序列化
+ * Shop、ShopType、Voucher按固定字段顺序写入，其他类型退化为json
+ * 序列化结果超过阈值时使用LZ4压缩
+ * 格式：MAGIC | flags | [原始长度] | [逻辑过期时间] | [重建耗时] | 类型标记 | 字段
+ * 不以MAGIC开头的数据按json解析，兼容已有缓存
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    /**
+     * 格式标记，实体字段顺序变化时需要更换
+     */
+    private static final byte MAGIC = (byte) 0xC5;
+
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_EXPIRE = 1 << 1;
+    private static final int FLAG_DELTA = 1 << 2;
+
+    private static final byte TAG_NULL = -1;
+    private static final byte TAG_JSON = 0;
+    private static final byte TAG_SHOP = 1;
+    private static final byte TAG_SHOP_TYPE = 2;
+    private static final byte TAG_VOUCHER = 3;
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+
+    /**
+     * 压缩阈值，单位字节，小于0表示不压缩
+     */
+    private final int compressThreshold;
+
+    public BinaryCacheCodec(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return write(value, null);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return jsonCodec.decode(bytes, type);
+        }
+        try {
+            DataInputStream in = body(bytes);
+            if ((bytes[1] & FLAG_EXPIRE) != 0) {
+                readTime(in);
+            }
+            if ((bytes[1] & FLAG_DELTA) != 0) {
+                in.readLong();
+            }
+            return readValue(in, type);
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存数据格式错误", e);
+        }
+    }
+
+    @Override
+    public byte[] encodeWithExpire(RedisData redisData) {
+        return write(redisData.getData(), redisData);
+    }
+
+    @Override
+    public <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (bytes[0] != MAGIC) {
+            return jsonCodec.decodeWithExpire(bytes, type);
+        }
+        try {
+            DataInputStream in = body(bytes);
+            RedisData redisData = new RedisData();
+            if ((bytes[1] & FLAG_EXPIRE) != 0) {
+                redisData.setExpireTime(readTime(in));
+            }
+            if ((bytes[1] & FLAG_DELTA) != 0) {
+                redisData.setDelta(in.readLong());
+            }
+            redisData.setData(readValue(in, type));
+            return redisData;
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存数据格式错误", e);
+        }
+    }
+
+    private byte[] write(Object value, RedisData envelope) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bos);
+            int flags = 0;
+            if (envelope != null) {
+                flags |= FLAG_EXPIRE;
+                writeTime(out, envelope.getExpireTime());
+                if (envelope.getDelta() != null) {
+                    flags |= FLAG_DELTA;
+                    out.writeLong(envelope.getDelta());
+                }
+            }
+            writeValue(out, value);
+            out.flush();
+            byte[] body = bos.toByteArray();
+            //超过阈值，压缩后写入原始长度
+            if (compressThreshold >= 0 && body.length > compressThreshold) {
+                byte[] compressed = LZ4.fastCompressor().compress(body);
+                return ByteBuffer.allocate(6 + compressed.length)
+                        .put(MAGIC)
+                        .put((byte) (flags | FLAG_COMPRESSED))
+                        .putInt(body.length)
+                        .put(compressed)
+                        .array();
+            }
+            byte[] result = new byte[body.length + 2];
+            result[0] = MAGIC;
+            result[1] = (byte) flags;
+            System.arraycopy(body, 0, result, 2, body.length);
+            return result;
+        } catch (IOException e) {
+            throw new IllegalStateException("缓存数据序列化失败", e);
+        }
+    }
+
+    private static DataInputStream body(byte[] bytes) {
+        if ((bytes[1] & FLAG_COMPRESSED) != 0) {
+            int rawLength = ByteBuffer.wrap(bytes, 2, 4).getInt();
+            byte[] raw = LZ4.fastDecompressor().decompress(bytes, 6, rawLength);
+            return new DataInputStream(new ByteArrayInputStream(raw));
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes, 2, bytes.length - 2));
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+        } else if (value instanceof Shop) {
+            out.writeByte(TAG_SHOP);
+            writeShop(out, (Shop) value);
+        } else if (value instanceof ShopType) {
+            out.writeByte(TAG_SHOP_TYPE);
+            writeShopType(out, (ShopType) value);
+        } else if (value instanceof Voucher) {
+            out.writeByte(TAG_VOUCHER);
+            writeVoucher(out, (Voucher) value);
+        } else {
+            out.writeByte(TAG_JSON);
+            byte[] json = jsonCodec.encode(value);
+            out.writeInt(json.length);
+            out.write(json);
+        }
+    }
+
+    private <R> R readValue(DataInputStream in, Class<R> type) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_SHOP:
+                return type.cast(readShop(in));
+            case TAG_SHOP_TYPE:
+                return type.cast(readShopType(in));
+            case TAG_VOUCHER:
+                return type.cast(readVoucher(in));
+            default:
+                byte[] json = new byte[in.readInt()];
+                in.readFully(json);
+                return jsonCodec.decode(json, type);
+        }
+    }
+
+    private static void writeShop(DataOutputStream out, Shop shop) throws IOException {
+        writeLong(out, shop.getId());
+        writeString(out, shop.getName());
+        writeLong(out, shop.getTypeId());
+        writeString(out, shop.getImages());
+        writeString(out, shop.getArea());
+        writeString(out, shop.getAddress());
+        writeDouble(out, shop.getX());
+        writeDouble(out, shop.getY());
+        writeLong(out, shop.getAvgPrice());
+        writeInt(out, shop.getSold());
+        writeInt(out, shop.getComments());
+        writeInt(out, shop.getScore());
+        writeString(out, shop.getOpenHours());
+        writeTime(out, shop.getCreateTime());
+        writeTime(out, shop.getUpdateTime());
+    }
+
+    private static Shop readShop(DataInputStream in) throws IOException {
+        Shop shop = new Shop();
+        shop.setId(readLong(in));
+        shop.setName(readString(in));
+        shop.setTypeId(readLong(in));
+        shop.setImages(readString(in));
+        shop.setArea(readString(in));
+        shop.setAddress(readString(in));
+        shop.setX(readDouble(in));
+        shop.setY(readDouble(in));
+        shop.setAvgPrice(readLong(in));
+        shop.setSold(readInt(in));
+        shop.setComments(readInt(in));
+        shop.setScore(readInt(in));
+        shop.setOpenHours(readString(in));
+        shop.setCreateTime(readTime(in));
+        shop.setUpdateTime(readTime(in));
+        return shop;
+    }
+
+    private static void writeShopType(DataOutputStream out, ShopType shopType) throws IOException {
+        writeLong(out, shopType.getId());
+        writeString(out, shopType.getName());
+        writeString(out, shopType.getIcon());
+        writeInt(out, shopType.getSort());
+        writeTime(out, shopType.getCreateTime());
+        writeTime(out, shopType.getUpdateTime());
+    }
+
+    private static ShopType readShopType(DataInputStream in) throws IOException {
+        ShopType shopType = new ShopType();
+        shopType.setId(readLong(in));
+        shopType.setName(readString(in));
+        shopType.setIcon(readString(in));
+        shopType.setSort(readInt(in));
+        shopType.setCreateTime(readTime(in));
+        shopType.setUpdateTime(readTime(in));
+        return shopType;
+    }
+
+    private static void writeVoucher(DataOutputStream out, Voucher voucher) throws IOException {
+        writeLong(out, voucher.getId());
+        writeLong(out, voucher.getShopId());
+        writeString(out, voucher.getTitle());
+        writeString(out, voucher.getSubTitle());
+        writeString(out, voucher.getRules());
+        writeLong(out, voucher.getPayValue());
+        writeLong(out, voucher.getActualValue());
+        writeInt(out, voucher.getType());
+        writeInt(out, voucher.getStatus());
+        writeInt(out, voucher.getStock());
+        writeTime(out, voucher.getBeginTime());
+        writeTime(out, voucher.getEndTime());
+        writeTime(out, voucher.getCreateTime());
+        writeTime(out, voucher.getUpdateTime());
+    }
+
+    private static Voucher readVoucher(DataInputStream in) throws IOException {
+        Voucher voucher = new Voucher();
+        voucher.setId(readLong(in));
+        voucher.setShopId(readLong(in));
+        voucher.setTitle(readString(in));
+        voucher.setSubTitle(readString(in));
+        voucher.setRules(readString(in));
+        voucher.setPayValue(readLong(in));
+        voucher.setActualValue(readLong(in));
+        voucher.setType(readInt(in));
+        voucher.setStatus(readInt(in));
+        voucher.setStock(readInt(in));
+        voucher.setBeginTime(readTime(in));
+        voucher.setEndTime(readTime(in));
+        voucher.setCreateTime(readTime(in));
+        voucher.setUpdateTime(readTime(in));
+        return voucher;
+    }
+
+    //以下字段读写均先写入是否为null的标记
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        long second = in.readLong();
+        int nano = in.readInt();
+        return LocalDateTime.ofEpochSecond(second, nano, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+
+/**
+ * 基于本地布隆过滤器拦截不存在的id，解决缓存穿透
+ * 启动时从tb_shop、tb_blog、tb_user分页加载id，新增数据时通过发布订阅同步到所有节点
+ * 重建在后台线程完成后整体替换，重建期间继续使用旧的过滤器
+ */
+@Slf4j
+@Component
+public class BloomFilterGuard {
+
+    public static final String SHOP = "shop";
+    public static final String BLOG = "blog";
+    public static final String USER = "user";
+
+    /**
+     * 每页加载的id数量
+     */
+    private static final int PAGE_SIZE = 5000;
+
+    private static final ExecutorService BLOOM_REBUILD_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final CacheProperties cacheProperties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 过滤器名 -> 数据表mapper
+     */
+    private final Map<String, BaseMapper<?>> mappers = new LinkedHashMap<>();
+
+    /**
+     * 正在使用的过滤器，未加载完成前不存在，此时不拦截
+     */
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+
+    /**
+     * 正在重建的过滤器，重建期间新增的id同时写入
+     */
+    private final Map<String, BloomFilter> building = new ConcurrentHashMap<>();
+
+    public BloomFilterGuard(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                            RedisMessageListenerContainer listenerContainer,
+                            ShopMapper shopMapper, BlogMapper blogMapper, UserMapper userMapper) {
+        this.cacheProperties = cacheProperties;
+        this.stringRedisTemplate = stringRedisTemplate;
+        mappers.put(SHOP, shopMapper);
+        mappers.put(BLOG, blogMapper);
+        mappers.put(USER, userMapper);
+        //订阅其他节点新增的id，消息格式 name:id
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(':');
+            addLocal(body.substring(0, index), Long.parseLong(body.substring(index + 1)));
+        }, new ChannelTopic(BLOOM_ADD_CHANNEL));
+    }
+
+    @PostConstruct
+    private void init() {
+        if (cacheProperties.isBloomEnabled()) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * id是否可能存在，返回false时一定不存在
+     */
+    public boolean mightContain(String name, Long id) {
+        if (!cacheProperties.isBloomEnabled() || id == null) {
+            return true;
+        }
+        BloomFilter filter = filters.get(name);
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后调用，同步到所有节点
+     */
+    public void add(String name, Long id) {
+        if (id == null) {
+            return;
+        }
+        addLocal(name, id);
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 先写building再写filters，与rebuild的发布顺序(先filters后building)相反，
+     * 重建期间新增的id至少会写入最终发布的过滤器
+     */
+    private void addLocal(String name, long id) {
+        BloomFilter rebuilding = building.get(name);
+        if (rebuilding != null) {
+            rebuilding.put(id);
+        }
+        BloomFilter filter = filters.get(name);
+        if (filter != null) {
+            filter.put(id);
+        }
+    }
+
+    /**
+     * 后台重建所有过滤器，不阻塞查询
+     */
+    public void rebuildAsync() {
+        for (String name : mappers.keySet()) {
+            BLOOM_REBUILD_EXECUTOR.submit(() -> {
+                try {
+                    rebuild(name);
+                } catch (Exception e) {
+                    log.error("布隆过滤器重建失败，name={}", name, e);
+                    building.remove(name);
+                }
+            });
+        }
+    }
+
+    private void rebuild(String name) {
+        BloomFilter filter = new BloomFilter(cacheProperties.getBloomExpectedInsertions(), cacheProperties.getBloomFpp());
+        building.put(name, filter);
+        BaseMapper<?> mapper = mappers.get(name);
+        long lastId = 0;
+        long count = 0;
+        //按主键分页加载id
+        while (true) {
+            List<Object> ids = selectIds(mapper, lastId);
+            for (Object id : ids) {
+                lastId = ((Number) id).longValue();
+                filter.put(lastId);
+            }
+            count += ids.size();
+            if (ids.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+        filters.put(name, filter);
+        building.remove(name);
+        log.info("布隆过滤器重建完成，name={}，count={}", name, count);
+    }
+
+    /**
+     * select id from table where id > lastId order by id limit PAGE_SIZE
+     */
+    private static <T> List<Object> selectIds(BaseMapper<T> mapper, long lastId) {
+        QueryWrapper<T> wrapper = new QueryWrapper<T>()
+                .select("id").gt("id", lastId).orderByAsc("id").last("LIMIT " + PAGE_SIZE);
+        return mapper.selectObjs(wrapper);
+    }
+}
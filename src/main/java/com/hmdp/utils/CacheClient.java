@@ -2,19 +2,35 @@ package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.RandomUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.hmdp.config.CacheProperties;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -28,20 +44,71 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    /**
+     * 本地一级缓存
+     */
+    private final LocalCache localCache;
+
+    private final CacheProperties cacheProperties;
+
+    /**
+     * 缓存序列化方式，默认json
+     */
+    private final CacheCodec cacheCodec;
+
+    /**
+     * 热点key探测，热点key读取本地副本
+     */
+    private final HotKeyDetector hotKeyDetector;
+
+    /**
+     * 缓存重建调度器
+     */
+    private final RebuildScheduler rebuildScheduler;
+
+    /**
+     * 本机正在重建的key，同一key的并发请求共享一个结果
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightRebuilds = new ConcurrentHashMap<>();
+
+    /**
+     * 等待其他节点重建完成的通知
+     */
+    private final Map<String, CompletableFuture<Void>> rebuildNotices = new ConcurrentHashMap<>();
+
+    private final AtomicLong earlyRefreshCount = new AtomicLong();
+
+    private final AtomicLong stampedeAvoidedCount = new AtomicLong();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCache localCache,
+                       CacheProperties cacheProperties, CacheCodec cacheCodec, HotKeyDetector hotKeyDetector,
+                       RebuildScheduler rebuildScheduler, RedisMessageListenerContainer listenerContainer) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.cacheProperties = cacheProperties;
+        this.cacheCodec = cacheCodec;
+        this.hotKeyDetector = hotKeyDetector;
+        this.rebuildScheduler = rebuildScheduler;
+        //订阅重建完成通知，唤醒等待该key的线程
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String key = new String(message.getBody(), StandardCharsets.UTF_8);
+            CompletableFuture<Void> rebuilt = rebuildNotices.remove(key);
+            if (rebuilt != null) {
+                rebuilt.complete(null);
+            }
+        }, new ChannelTopic(CACHE_REBUILT_CHANNEL));
     }
 
     /**
-     * 将对象序列化为json储存在redis中，并设置过期时间
+     * 将对象序列化后储存在redis中，并设置过期时间
      * 写入redis时销毁时间加上0~9的随机数，防止缓存雪崩
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time + RandomUtil.randomLong(10), unit);
+        setRaw(key, cacheCodec.encode(value), time + RandomUtil.randomLong(10), unit);
     }
 
     /**
-     * 将对象序列化为json储存在redis中，并设置过期时间
+     * 将对象序列化后储存在redis中，不设置过期时间
      * 逻辑过期法
      */
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit){
@@ -50,7 +117,36 @@ public class CacheClient {
         redisData.setData(value);
         redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
         //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setRaw(key, cacheCodec.encodeWithExpire(redisData), 0, unit);
+    }
+
+    /**
+     * 通过pipeline批量写入，过期时间同set
+     */
+    public void setBatch(Map<String, ?> values, Long time, TimeUnit unit){
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> connection.stringCommands().set(
+                    key.getBytes(StandardCharsets.UTF_8), cacheCodec.encode(value),
+                    Expiration.from(time + RandomUtil.randomLong(10), unit), RedisStringCommands.SetOption.upsert()));
+            return null;
+        });
+    }
+
+    /**
+     * 通过pipeline批量写入，逻辑过期法
+     */
+    public void setBatchWithLogicalExpire(Map<String, ?> values, Long time, TimeUnit unit){
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(unit.toSeconds(time));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                RedisData redisData = new RedisData();
+                redisData.setData(value);
+                redisData.setExpireTime(expireTime);
+                connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8),
+                        cacheCodec.encodeWithExpire(redisData), Expiration.persistent(), RedisStringCommands.SetOption.upsert());
+            });
+            return null;
+        });
     }
 
     /**
@@ -59,16 +155,23 @@ public class CacheClient {
      */
     public <R,ID> R queryWithPassThrough(String KeyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
         String key = KeyPrefix + id;
+        //0.查询本地缓存
+        R local = localCache.get(KeyPrefix, key, type);
+        if(local != null){
+            return local;
+        }
         //1.从redis查询商铺数据
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = readRaw(key);
         //2.判断是否存在
-        if(StrUtil.isNotBlank(json)){
+        if(isHit(bytes)){
             //3.存在，返回商铺信息
-            return JSONUtil.toBean(json, type);
+            R r = cacheCodec.decode(bytes, type);
+            localCache.put(KeyPrefix, key, r);
+            return r;
         }
         //判断命中的是否为空值
-        // json == ""
-        if(json != null){
+        // bytes == ""
+        if(bytes != null){
             //返回错误信息
             return null;
         }
@@ -82,6 +185,7 @@ public class CacheClient {
         }
         //6.存在，写入redis,30分钟+0~9的随机数，防止redis缓存雪崩
         this.set(key, r,time,unit);
+        localCache.put(KeyPrefix, key, r);
         //7.返回商铺信息
         return r;
     }
@@ -92,106 +196,394 @@ public class CacheClient {
      */
     public <R,ID> R queryWithMutex(String KeyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
         String key = KeyPrefix + id;
+        //0.查询本地缓存
+        R local = localCache.get(KeyPrefix, key, type);
+        if(local != null){
+            return local;
+        }
         //1.从redis查询商铺数据
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = readRaw(key);
         //2.判断是否存在
-        if(StrUtil.isNotBlank(json)){
+        if(isHit(bytes)){
             //3.存在，返回商铺信息
-            R r = JSONUtil.toBean(json, type);
+            R r = cacheCodec.decode(bytes, type);
+            localCache.put(KeyPrefix, key, r);
             return r;
         }
         //判断命中的是否为空值
-        // json == ""
-        if(json != null){
+        // bytes == ""
+        if(bytes != null){
             //返回错误信息
             return null;
         }
         //4.重建缓存
-        //4.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        if(!cacheProperties.isSingleFlight()){
+            return rebuildWithMutex(KeyPrefix, id, type, dbFallback, time, unit, false);
+        }
+        //4.1同一JVM内对同一key的并发未命中合并为一次重建
+        return singleFlight(key, type, () -> rebuildWithMutex(KeyPrefix, id, type, dbFallback, time, unit, true));
+    }
+
+    /**
+     * 同一JVM内对同一key的并发调用只执行一次loader，其余线程等待并共享结果
+     */
+    private <R> R singleFlight(String key, Class<R> type, Supplier<R> loader){
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightRebuilds.putIfAbsent(key, future);
+        if(inFlight != null){
+            //已有线程在重建，等待其结果
+            try {
+                return type.cast(inFlight.get(LOCK_SHOP_TTL, TimeUnit.MINUTES));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new RuntimeException(e);
+            }
+        }
         try {
+            R r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRebuilds.remove(key, future);
+        }
+    }
+
+    /**
+     * 获取互斥锁后重建缓存，同一时刻每个key只有一个节点查询数据库
+     * 未获取到锁的节点等待重建完成的通知（或休眠）后重新读取redis，重试次数有上限
+     */
+    private <R,ID> R rebuildWithMutex(String KeyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback,
+                                      Long time, TimeUnit unit, boolean awaitNotify){
+        String key = KeyPrefix + id;
+        String lockKey = LOCK_SHOP_KEY + id;
+        for (int i = 0; i < cacheProperties.getMutexMaxRetries(); i++) {
+            //4.1获取互斥锁
             boolean isLock = tryLock(lockKey);
-            //4.2判断是否获取成功
-            if(!isLock){
-                //4.3获取失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(KeyPrefix,id,type,dbFallback,time,unit);
+            //4.2获取成功，根据id查询数据库
+            if(isLock){
+                try {
+                    return loadAndCache(KeyPrefix, id, type, dbFallback, time, unit);
+                } finally {
+                    //7.释放互斥锁，并通知等待的节点
+                    unlock(lockKey);
+                    if(awaitNotify){
+                        stringRedisTemplate.convertAndSend(CACHE_REBUILT_CHANNEL, key);
+                    }
+                }
             }
-            //4.4获取成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            //Thread.sleep(5000);
-            //5.不存在，返回错误
-            if(r == null){
-                //将空值写入redis
-                stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            //4.3获取失败，等待重建完成后重新查询redis
+            CompletableFuture<Void> rebuilt = awaitNotify
+                    ? rebuildNotices.computeIfAbsent(key, k -> new CompletableFuture<>())
+                    : null;
+            byte[] bytes = getRaw(key);
+            if(bytes == null){
+                waitForRebuild(key, rebuilt);
+                bytes = getRaw(key);
+            }
+            if(isHit(bytes)){
+                R r = cacheCodec.decode(bytes, type);
+                localCache.put(KeyPrefix, key, r);
+                return r;
+            }
+            if(bytes != null){
                 return null;
             }
-            //6.存在，写入redis,30分钟+0~9的随机数，防止redis缓存雪崩
-            //stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(r),CACHE_SHOP_TTL + RandomUtil.randomLong(10), TimeUnit.MINUTES);
-            this.set(key, r,time,unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
-            //7.释放互斥锁
-            unlock(lockKey);
         }
-        //8.返回商铺信息
+        //8.重试次数用尽，直接查询数据库，不再写缓存
+        log.warn("缓存重建等待超时，直接查询数据库，key={}", key);
+        return dbFallback.apply(id);
+    }
+
+    /**
+     * 查询数据库并写入缓存，调用方需持有互斥锁
+     */
+    private <R,ID> R loadAndCache(String KeyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        String key = KeyPrefix + id;
+        //二次检查，锁可能刚被上一个重建者释放
+        byte[] bytes = getRaw(key);
+        if(isHit(bytes)){
+            return cacheCodec.decode(bytes, type);
+        }
+        if(bytes != null){
+            return null;
+        }
+        //4.4根据id查询数据库
+        R r = dbFallback.apply(id);
+        //5.不存在，将空值写入redis
+        if(r == null){
+            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        //6.存在，写入redis,30分钟+0~9的随机数，防止redis缓存雪崩
+        this.set(key, r,time,unit);
+        localCache.put(KeyPrefix, key, r);
         return r;
     }
 
-    //缓存重建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 等待重建完成通知，rebuilt为null时退化为休眠
+     */
+    private void waitForRebuild(String key, CompletableFuture<Void> rebuilt){
+        long waitMillis = cacheProperties.getMutexWaitMillis();
+        try {
+            if(rebuilt == null){
+                Thread.sleep(waitMillis);
+                return;
+            }
+            rebuilt.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException | TimeoutException e) {
+            //超时后移除等待并重新检查redis
+            rebuildNotices.remove(key, rebuilt);
+        }
+    }
 
     /**
-     * 将对象序列化为json储存在redis中，并设置过期时间
+     * 根据key查询缓存，并反序列化为指定类型
      * 逻辑过期解决缓存过期
      */
     public <R,ID> R queryWithLogicalExpire(String KeyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
         String key = KeyPrefix + id;
         //1.从redis查询商铺数据
-        String json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = readRaw(key);
         //2.判断是否存在
-        if(StrUtil.isBlank(json)){
+        if(!isHit(bytes)){
             //3.不存在，返回null
             return null;
         }
-        //4.命中，将Json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        JSONObject data = (JSONObject) redisData.getData();
-        R r = JSONUtil.toBean(data, type);
+        //4.命中，反序列化为对象，一次解析得到过期时间和数据
+        RedisData redisData = cacheCodec.decodeWithExpire(bytes, type);
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         //5.判断逻辑时间是否过期
         if(expireTime.isAfter(LocalDateTime.now())){
             //5.1未过期，返回店铺信息
             return r;
         }
-        //6.缓存重建
-        //6.1获取互斥锁
-        String lockKey = LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lockKey);
-        //6.2判断是否获取成功
-        if(isLock){
-            //6.3获取成功，开启线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(()->{
-                try {
-                    //缓存重建
-                    //1.查询数据库
-                    R r1 = dbFallback.apply(id);
-                    //2.写入redis
-                    this.setWithLogicalExpire(key,r1,time,unit);
-                }  catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
-                    //释放互斥锁
-                    unlock(lockKey);
+        //6.缓存重建，交给重建调度器，本机同一key只重建一次
+        rebuildScheduler.submit(KeyPrefix, key, () -> {
+            //6.1获取互斥锁，避免多个节点同时重建
+            String lockKey = LOCK_SHOP_KEY + id;
+            if(!tryLock(lockKey)){
+                return;
+            }
+            try {
+                //6.2查询数据库，写入redis
+                R r1 = dbFallback.apply(id);
+                this.setWithLogicalExpire(key,r1,time,unit);
+            } finally {
+                //6.3释放互斥锁
+                unlock(lockKey);
+            }
+        });
+        //7.返回过期店铺信息
+        return r;
+    }
+
+    /**
+     * 将对象及其重建耗时写入redis，redis过期时间与逻辑过期时间一致
+     * 提前刷新法
+     */
+    public void setWithEarlyRefresh(String key, Object value, long delta, Long time, TimeUnit unit){
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setDelta(delta);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        setRaw(key, cacheCodec.encodeWithExpire(redisData), time, unit);
+    }
+
+    /**
+     * 根据key查询缓存，并反序列化为指定类型
+     * 概率提前刷新(XFetch)解决缓存击穿：越接近过期、重建越慢，读请求越可能提前刷新，热点key在过期前就会被刷新，不需要加锁
+     */
+    public <R,ID> R queryWithEarlyRefresh(String KeyPrefix, ID id, Class<R> type, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        String key = KeyPrefix + id;
+        //1.从redis查询
+        byte[] bytes = readRaw(key);
+        //2.命中空值
+        if(bytes != null && bytes.length == 0){
+            return null;
+        }
+        //3.未命中，同步加载，本机并发请求合并为一次
+        RedisData redisData = bytes == null ? null : cacheCodec.decodeWithExpire(bytes, type);
+        if(redisData == null || redisData.getExpireTime() == null){
+            //不带过期时间的旧格式数据同样重新加载
+            return singleFlight(key, type, () -> loadWithEarlyRefresh(key, id, dbFallback, time, unit));
+        }
+        //4.命中，判断是否需要提前刷新 now - delta * beta * ln(random) >= expireTime
+        R r = type.cast(redisData.getData());
+        long delta = redisData.getDelta() == null ? 0 : redisData.getDelta();
+        long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        double gap = -delta * cacheProperties.getEarlyRefreshBeta() * Math.log(ThreadLocalRandom.current().nextDouble());
+        if(System.currentTimeMillis() + gap < expireMillis){
+            return r;
+        }
+        //5.提前刷新，本机同一key只提交一次，其余请求继续返回当前值
+        boolean submitted = rebuildScheduler.submit(KeyPrefix, key, () -> {
+            loadWithEarlyRefresh(key, id, dbFallback, time, unit);
+            //在旧值过期前完成刷新，避免了一次过期时的并发重建
+            if(System.currentTimeMillis() < expireMillis){
+                stampedeAvoidedCount.incrementAndGet();
+            }
+        });
+        if(submitted){
+            earlyRefreshCount.incrementAndGet();
+        }
+        return r;
+    }
+
+    /**
+     * 查询数据库并记录耗时，写入提前刷新格式的缓存
+     */
+    private <R,ID> R loadWithEarlyRefresh(String key, ID id, Function<ID,R> dbFallback, Long time, TimeUnit unit){
+        long begin = System.currentTimeMillis();
+        R r = dbFallback.apply(id);
+        long delta = System.currentTimeMillis() - begin;
+        if(r == null){
+            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            return null;
+        }
+        setWithEarlyRefresh(key, r, delta, time, unit);
+        return r;
+    }
+
+    /**
+     * 提前刷新统计
+     * earlyRefreshes：触发的提前刷新次数
+     * stampedesAvoided：在旧值过期前完成的刷新次数，每次都避免了一次过期时的并发重建
+     */
+    public Map<String, Long> earlyRefreshStats(){
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("earlyRefreshes", earlyRefreshCount.get());
+        stats.put("stampedesAvoided", stampedeAvoidedCount.get());
+        return stats;
+    }
+
+    /**
+     * 批量查询缓存，结果顺序与ids一致，不存在的id不返回
+     * 先查本地缓存，其余一次MGET，未命中的id一次交给dbBatchFallback查询，再通过pipeline一次写回
+     */
+    public <R,ID> List<R> queryBatch(String KeyPrefix, Collection<ID> ids, Class<R> type,
+                                     Function<Collection<ID>, Map<ID,R>> dbBatchFallback, Long time, TimeUnit unit){
+        if(ids == null || ids.isEmpty()){
+            return Collections.emptyList();
+        }
+        Map<ID, R> found = new HashMap<>(ids.size());
+        //1.查询本地缓存
+        List<ID> remote = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R local = localCache.get(KeyPrefix, KeyPrefix + id, type);
+            if(local != null){
+                found.put(id, local);
+            }else{
+                remote.add(id);
+            }
+        }
+        //2.一次MGET查询redis
+        List<ID> missing = new ArrayList<>();
+        if(!remote.isEmpty()){
+            byte[][] keys = new byte[remote.size()][];
+            for (int i = 0; i < remote.size(); i++) {
+                keys[i] = (KeyPrefix + remote.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.stringCommands().mGet(keys));
+            for (int i = 0; i < remote.size(); i++) {
+                ID id = remote.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                if(isHit(bytes)){
+                    R r = cacheCodec.decode(bytes, type);
+                    found.put(id, r);
+                    localCache.put(KeyPrefix, KeyPrefix + id, r);
+                }else if(bytes == null){
+                    missing.add(id);
+                }
+                //空值，说明数据库中不存在
+            }
+        }
+        //3.未命中的id一次查询数据库，并通过pipeline写回redis
+        if(!missing.isEmpty()){
+            Map<ID, R> loaded = dbBatchFallback.apply(missing);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missing) {
+                    R r = loaded == null ? null : loaded.get(id);
+                    byte[] key = (KeyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                    if(r == null){
+                        //将空值写入redis
+                        connection.stringCommands().set(key, new byte[0],
+                                Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.upsert());
+                        continue;
+                    }
+                    found.put(id, r);
+                    localCache.put(KeyPrefix, KeyPrefix + id, r);
+                    connection.stringCommands().set(key, cacheCodec.encode(r),
+                            Expiration.from(time + RandomUtil.randomLong(10), unit), RedisStringCommands.SetOption.upsert());
                 }
+                return null;
             });
         }
-        //6.4获取失败，返回过期店铺信息
-        return r;
+        //4.按ids顺序返回
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if(r != null){
+                result.add(r);
+            }
+        }
+        return result;
     }
 
+    /**
+     * 删除缓存
+     * 同时删除redis和所有节点的本地缓存
+     */
+    public void delete(String key){
+        stringRedisTemplate.delete(key);
+        hotKeyDetector.invalidateLocal(key);
+        localCache.invalidate(key);
+    }
+
+    /**
+     * 查询入口读取原始字节，热点key读取本地副本
+     * 重建过程中的二次检查需要读到最新值，使用getRaw
+     */
+    private byte[] readRaw(String key){
+        return hotKeyDetector.read(key, () -> getRaw(key));
+    }
+
+    /**
+     * 读取原始字节，key不存在返回null，空值返回长度为0的数组
+     */
+    private byte[] getRaw(String key){
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 写入原始字节，time不大于0时不设置过期时间
+     */
+    private void setRaw(String key, byte[] value, long time, TimeUnit unit){
+        Expiration expiration = time > 0 ? Expiration.from(time, unit) : Expiration.persistent();
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(key.getBytes(StandardCharsets.UTF_8), value,
+                        expiration, RedisStringCommands.SetOption.upsert()));
+        //本机重建后立即读到新值
+        hotKeyDetector.invalidateLocal(key);
+    }
+
+    /**
+     * 是否命中了非空值
+     */
+    private static boolean isHit(byte[] bytes){
+        return bytes != null && bytes.length > 0;
+    }
 
     //获取互斥锁
     private boolean tryLock(String key){
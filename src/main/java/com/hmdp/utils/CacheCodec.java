@@ -0,0 +1,28 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存序列化接口
+ * CacheClient通过该接口读写redis中的缓存值
+ */
+public interface CacheCodec {
+
+    /**
+     * 序列化缓存对象
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 反序列化为指定类型
+     */
+    <R> R decode(byte[] bytes, Class<R> type);
+
+    /**
+     * 序列化带逻辑过期时间的缓存对象
+     */
+    byte[] encodeWithExpire(RedisData redisData);
+
+    /**
+     * 反序列化带逻辑过期时间的缓存对象，返回的data已经是指定类型
+     */
+    <R> RedisData decodeWithExpire(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,198 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 数据变更驱动的缓存失效
+ * 从事件源接收行变更事件，按批次去重后删除对应的redis和本地缓存，延迟一段时间后再删除一次(延迟双删)，
+ * 覆盖删除后并发重建把旧数据写回的情况；热点店铺在第二次删除后重新加载，避免热点key失效时的并发重建
+ */
+@Slf4j
+@Component
+public class CacheInvalidationPipeline {
+
+    private final CacheProperties cacheProperties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final LocalCache localCache;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final IShopService shopService;
+
+    private final List<ChangeEventSource> sources;
+
+    /**
+     * 表名 -> 受影响的缓存key
+     */
+    private final Map<String, Function<RowChangeEvent, Collection<String>>> keyMappings = new HashMap<>();
+
+    private final BlockingQueue<RowChangeEvent> events = new LinkedBlockingQueue<>();
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2);
+
+    private volatile boolean running;
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong evicted = new AtomicLong();
+
+    private final AtomicLong refreshed = new AtomicLong();
+
+    public CacheInvalidationPipeline(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                                     LocalCache localCache, HotKeyDetector hotKeyDetector,
+                                     @Lazy IShopService shopService, List<ChangeEventSource> sources) {
+        this.cacheProperties = cacheProperties;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = localCache;
+        this.hotKeyDetector = hotKeyDetector;
+        this.shopService = shopService;
+        this.sources = sources;
+        keyMappings.put("tb_shop", event -> Collections.singletonList(CACHE_SHOP_KEY + event.getId()));
+        keyMappings.put("tb_shop_type", event -> Collections.singletonList(CACHE_SHOP_TYPE));
+        keyMappings.put("tb_user", event -> Collections.singletonList(CACHE_USER_KEY + event.getId()));
+        //优惠券和笔记目前没有缓存，保留映射以便后续增加
+        keyMappings.put("tb_voucher", event -> Collections.emptyList());
+        keyMappings.put("tb_blog", event -> Collections.emptyList());
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!cacheProperties.isCdcEnabled()) {
+            return;
+        }
+        running = true;
+        executor.submit(this::consume);
+        for (ChangeEventSource source : sources) {
+            source.start(this::accept);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        for (ChangeEventSource source : sources) {
+            source.stop();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * 接收事件，只处理有缓存映射的表
+     */
+    private void accept(RowChangeEvent event) {
+        if (event == null || event.getTable() == null || !keyMappings.containsKey(event.getTable())) {
+            return;
+        }
+        received.incrementAndGet();
+        events.offer(event);
+    }
+
+    private void consume() {
+        while (running) {
+            try {
+                //1.阻塞等待第一个事件，然后在批次窗口内继续收集
+                RowChangeEvent first = events.take();
+                List<RowChangeEvent> batch = new ArrayList<>();
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + cacheProperties.getCdcBatchWindowMillis();
+                while (batch.size() < cacheProperties.getCdcBatchSize()) {
+                    long wait = deadline - System.currentTimeMillis();
+                    RowChangeEvent next = wait > 0 ? events.poll(wait, TimeUnit.MILLISECONDS) : events.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                //2.去重得到需要删除的key
+                Set<String> keys = new LinkedHashSet<>();
+                for (RowChangeEvent event : batch) {
+                    keys.addAll(keyMappings.get(event.getTable()).apply(event));
+                }
+                batches.incrementAndGet();
+                if (keys.isEmpty()) {
+                    continue;
+                }
+                //3.第一次删除
+                evict(keys);
+                //4.延迟双删，之后重新加载热点店铺
+                executor.schedule(() -> {
+                    try {
+                        evict(keys);
+                        refreshHotShops(keys);
+                    } catch (Exception e) {
+                        log.error("延迟删除缓存失败，keys={}", keys, e);
+                    }
+                }, cacheProperties.getCdcDoubleDeleteDelayMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("处理数据变更事件失败", e);
+            }
+        }
+    }
+
+    /**
+     * 批量删除redis，并通知各节点删除本地缓存和热点副本
+     */
+    private void evict(Set<String> keys) {
+        stringRedisTemplate.delete(keys);
+        for (String key : keys) {
+            hotKeyDetector.invalidateLocal(key);
+            localCache.invalidate(key);
+        }
+        evicted.addAndGet(keys.size());
+    }
+
+    private void refreshHotShops(Set<String> keys) {
+        for (String key : keys) {
+            if (key.startsWith(CACHE_SHOP_KEY) && hotKeyDetector.isHot(key)) {
+                shopService.queryById(Long.valueOf(key.substring(CACHE_SHOP_KEY.length())));
+                refreshed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 处理统计
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("received", received.get());
+        stats.put("pending", events.size());
+        stats.put("batches", batches.get());
+        stats.put("evictedKeys", evicted.get());
+        stats.put("refreshedHotKeys", refreshed.get());
+        return stats;
+    }
+}
@@ -0,0 +1,230 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 启动时预热缓存
+ * 按主键分页读取tb_shop，写入店铺缓存和GEO，再写入店铺类型列表和未结束的秒杀库存
+ * 每页的redis写入交给有界线程池并行执行，队列满时由读取线程自己写入，避免一次性加载全表
+ * ApplicationRunner执行完成后Spring Boot才会发布ACCEPTING_TRAFFIC，预热期间实例保持未就绪
+ */
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+
+    private final CacheProperties cacheProperties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheClient cacheClient;
+
+    private final ShopMapper shopMapper;
+
+    private final ShopTypeMapper shopTypeMapper;
+
+    private final SeckillVoucherMapper seckillVoucherMapper;
+
+    private final ApplicationEventPublisher publisher;
+
+    /**
+     * 当前阶段：waiting、shop、shop-type、seckill-stock、done、failed、disabled
+     */
+    private volatile String phase = "waiting";
+
+    private volatile boolean ready;
+
+    private final AtomicLong shopTotal = new AtomicLong();
+
+    private final AtomicLong shopLoaded = new AtomicLong();
+
+    private final AtomicLong stockLoaded = new AtomicLong();
+
+    private volatile long beginMillis;
+
+    private volatile long costMillis;
+
+    public CacheWarmUpRunner(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                             CacheClient cacheClient, ShopMapper shopMapper, ShopTypeMapper shopTypeMapper,
+                             SeckillVoucherMapper seckillVoucherMapper, ApplicationEventPublisher publisher) {
+        this.cacheProperties = cacheProperties;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheClient = cacheClient;
+        this.shopMapper = shopMapper;
+        this.shopTypeMapper = shopTypeMapper;
+        this.seckillVoucherMapper = seckillVoucherMapper;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!cacheProperties.isWarmupEnabled()) {
+            phase = "disabled";
+            ready = true;
+            return;
+        }
+        AvailabilityChangeEvent.publish(publisher, this, ReadinessState.REFUSING_TRAFFIC);
+        beginMillis = System.currentTimeMillis();
+        int parallelism = Math.max(1, cacheProperties.getWarmupParallelism());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelism), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            //1.店铺缓存和GEO
+            phase = "shop";
+            warmUpShops(executor);
+            //2.店铺类型列表
+            phase = "shop-type";
+            warmUpShopTypes();
+            //3.秒杀库存
+            phase = "seckill-stock";
+            warmUpSeckillStock();
+            phase = "done";
+        } catch (Exception e) {
+            //预热失败不影响启动，未预热的数据由查询时按需加载
+            phase = "failed";
+            log.error("缓存预热失败", e);
+        } finally {
+            executor.shutdown();
+            costMillis = System.currentTimeMillis() - beginMillis;
+            ready = true;
+        }
+        log.info("缓存预热结束，phase={}，shop={}/{}，stock={}，cost={}ms",
+                phase, shopLoaded.get(), shopTotal.get(), stockLoaded.get(), costMillis);
+    }
+
+    private void warmUpShops(ThreadPoolExecutor executor) throws Exception {
+        int pageSize = cacheProperties.getWarmupPageSize();
+        shopTotal.set(shopMapper.selectCount(null));
+        List<Future<?>> futures = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            //select * from tb_shop where id > lastId order by id limit pageSize
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .gt("id", lastId).orderByAsc("id").last("LIMIT " + pageSize));
+            if (shops.isEmpty()) {
+                break;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
+            futures.add(executor.submit(() -> writeShops(shops)));
+            if (shops.size() < pageSize) {
+                break;
+            }
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+    }
+
+    private void writeShops(List<Shop> shops) {
+        //1.店铺缓存，格式与当前查询策略一致，逻辑过期和提前刷新使用带过期时间的格式
+        Map<String, Shop> values = new LinkedHashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+        }
+        String strategy = cacheProperties.getShopStrategy();
+        if ("logical".equals(strategy) || "early-refresh".equals(strategy)) {
+            cacheClient.setBatchWithLogicalExpire(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        } else {
+            cacheClient.setBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        }
+        //2.按typeId分组批量GEOADD
+        Map<Long, List<Shop>> byType = shops.stream()
+                .filter(shop -> shop.getX() != null && shop.getY() != null)
+                .collect(Collectors.groupingBy(Shop::getTypeId));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byType.forEach((typeId, list) -> {
+                Map<byte[], Point> members = new LinkedHashMap<>(list.size() * 2);
+                for (Shop shop : list) {
+                    members.put(shop.getId().toString().getBytes(StandardCharsets.UTF_8), new Point(shop.getX(), shop.getY()));
+                }
+                connection.geoCommands().geoAdd((SHOP_GEO_KEY + typeId).getBytes(StandardCharsets.UTF_8), members);
+            });
+            return null;
+        });
+        shopLoaded.addAndGet(shops.size());
+    }
+
+    private void warmUpShopTypes() {
+        List<ShopType> shopTypes = shopTypeMapper.selectList(new QueryWrapper<ShopType>().orderByAsc("sort"));
+        stringRedisTemplate.opsForValue().set(CACHE_SHOP_TYPE, JSONUtil.toJsonStr(shopTypes));
+    }
+
+    /**
+     * 只补齐不存在的库存key，已有的库存可能已被扣减，不能用数据库的值覆盖
+     * 库存分片的优惠券分片信息仍在时跳过
+     */
+    private void warmUpSeckillStock() {
+        List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                .select("voucher_id", "stock").gt("end_time", LocalDateTime.now()));
+        if (vouchers.isEmpty()) {
+            return;
+        }
+        List<String> shards = stringRedisTemplate.opsForValue().multiGet(vouchers.stream()
+                .map(voucher -> SECKILL_SHARDS_KEY + voucher.getVoucherId()).collect(Collectors.toList()));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < vouchers.size(); i++) {
+                if (shards != null && shards.get(i) != null) {
+                    continue;
+                }
+                SeckillVoucher voucher = vouchers.get(i);
+                connection.stringCommands().setNX((SECKILL_STOCK_KEY + voucher.getVoucherId()).getBytes(StandardCharsets.UTF_8),
+                        voucher.getStock().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        stockLoaded.set(vouchers.size());
+    }
+
+    /**
+     * 预热是否结束(成功、失败或未开启)
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 预热进度
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("phase", phase);
+        status.put("ready", ready);
+        status.put("shopTotal", shopTotal.get());
+        status.put("shopLoaded", shopLoaded.get());
+        status.put("stockLoaded", stockLoaded.get());
+        status.put("costMillis", ready ? costMillis : (beginMillis == 0 ? 0 : System.currentTimeMillis() - beginMillis));
+        return status;
+    }
+}
@@ -0,0 +1,20 @@
+package com.hmdp.utils;
+
+import java.util.function.Consumer;
+
+/**
+ * 数据变更事件源
+ * 生产环境可接入binlog订阅(canal、debezium等)，本地和测试使用LocalChangeEventSource或FileChangeEventSource
+ */
+public interface ChangeEventSource {
+
+    /**
+     * 开始推送事件
+     */
+    void start(Consumer<RowChangeEvent> consumer);
+
+    /**
+     * 停止推送事件
+     */
+    void stop();
+}
@@ -0,0 +1,361 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.RuntimeUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.FeedProperties;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 笔记推送到粉丝收件箱，在保存笔记的请求之外异步执行
+ * 1.保存笔记后向stream.feed写入第一个推送任务 {blogId, authorId, time, cursor=0, seq=0}
+ * 2.消费者按主键分页读取一批粉丝 where follow_user_id = ? and id > cursor order by id limit n，
+ *   这一批满n条时先写入下一批的任务(cursor=本批最后一个id)，其他线程或节点可以同时处理下一批
+ * 3.本批粉丝的ZADD由FeedInbox在一次脚本调用中写入并裁剪，完成后记录进度并ACK
+ * 推送进度保存在hash feed:fanout:blogId，同一批任务重复投递时通过 n:seq、d:seq 字段保证只派发一次下一批、只计数一次
+ * 投递次数超过fanout-max-deliveries的任务不再重试，在进度中记录 f:seq=cursor 后确认并删除，避免阻塞推送线程
+ */
+@Slf4j
+@Component
+public class FeedFanout {
+
+    private static final String GROUP_NAME = FEED_STREAM_GROUP;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final FollowMapper followMapper;
+
+    private final FeedProperties feedProperties;
+
+    private final FeedInbox feedInbox;
+
+    private ExecutorService fanoutExecutor;
+
+    private volatile boolean running = true;
+
+    private final AtomicLong chunks = new AtomicLong();
+
+    private final AtomicLong pushed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    public FeedFanout(StringRedisTemplate stringRedisTemplate, FollowMapper followMapper, FeedProperties feedProperties,
+                      FeedInbox feedInbox) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.followMapper = followMapper;
+        this.feedProperties = feedProperties;
+        this.feedInbox = feedInbox;
+    }
+
+    @PostConstruct
+    private void init() {
+        //创建消费者组 XGROUP CREATE stream.feed g1 0 MKSTREAM，已存在时忽略
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    bytes(FEED_STREAM_KEY), GROUP_NAME, ReadOffset.from("0"), true));
+        } catch (Exception e) {
+            log.debug("消费者组已存在，group={}", GROUP_NAME);
+        }
+        int workers = Math.max(1, feedProperties.getFanoutWorkers());
+        String prefix = NetUtil.getLocalHostName() + "-" + RuntimeUtil.getPid();
+        fanoutExecutor = Executors.newFixedThreadPool(workers);
+        for (int i = 0; i < workers; i++) {
+            fanoutExecutor.submit(new FanoutHandler(prefix + "-f" + i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        fanoutExecutor.shutdownNow();
+    }
+
+    /**
+     * 提交笔记的推送任务，只写入第一批，立即返回
+     * @param time 收件箱中的分数，同一篇笔记在所有粉丝收件箱中相同
+     */
+    public void submit(Long blogId, Long authorId, long time) {
+        //1.初始化推送进度
+        String progressKey = FEED_FANOUT_KEY + blogId;
+        Map<String, String> progress = new HashMap<>(4);
+        progress.put("authorId", authorId.toString());
+        progress.put("startTime", String.valueOf(System.currentTimeMillis()));
+        progress.put("pushed", "0");
+        progress.put("chunksDone", "0");
+        stringRedisTemplate.opsForHash().putAll(progressKey, progress);
+        stringRedisTemplate.expire(progressKey, feedProperties.getFanoutProgressTtlHours(), TimeUnit.HOURS);
+        //2.写入第一批任务
+        addChunk(blogId, authorId, time, 0L, 0);
+    }
+
+    /**
+     * 查询笔记的推送进度
+     * @return pushed=已推送粉丝数、chunksDone=已完成批数、chunks=总批数(最后一批完成前为空)、done=是否全部完成、
+     *         failedChunks=超过最大投递次数而放弃的批数
+     */
+    public Map<String, Object> progress(Long blogId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(FEED_FANOUT_KEY + blogId);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("blogId", blogId);
+        progress.put("pushed", toLong(entries.get("pushed")));
+        progress.put("chunksDone", toLong(entries.get("chunksDone")));
+        progress.put("chunks", toLong(entries.get("chunks")));
+        progress.put("done", entries.get("finishTime") != null);
+        progress.put("failedChunks", toLong(entries.get("failedChunks")));
+        progress.put("startTime", toLong(entries.get("startTime")));
+        progress.put("finishTime", toLong(entries.get("finishTime")));
+        return progress;
+    }
+
+    /**
+     * 本节点处理的批数、推送数、失败次数和放弃的批数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("length", stringRedisTemplate.opsForStream().size(FEED_STREAM_KEY));
+        stats.put("chunks", chunks.get());
+        stats.put("pushed", pushed.get());
+        stats.put("failed", failed.get());
+        stats.put("dropped", dropped.get());
+        return stats;
+    }
+
+    private void addChunk(Long blogId, Long authorId, long time, long cursor, int seq) {
+        Map<String, String> values = new HashMap<>(8);
+        values.put("blogId", blogId.toString());
+        values.put("authorId", authorId.toString());
+        values.put("time", String.valueOf(time));
+        values.put("cursor", String.valueOf(cursor));
+        values.put("seq", String.valueOf(seq));
+        stringRedisTemplate.opsForStream().add(StreamRecords.mapBacked(values).withStreamKey(FEED_STREAM_KEY));
+    }
+
+    /**
+     * 处理一批粉丝，成功后ACK并删除消息，失败时消息留在PendingList中重试
+     */
+    private void handleChunk(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> value = record.getValue();
+        Long blogId = Long.valueOf(value.get("blogId").toString());
+        Long authorId = Long.valueOf(value.get("authorId").toString());
+        long time = Long.parseLong(value.get("time").toString());
+        long cursor = Long.parseLong(value.get("cursor").toString());
+        int seq = Integer.parseInt(value.get("seq").toString());
+        String progressKey = FEED_FANOUT_KEY + blogId;
+        //1.重复投递且已完成的批次直接确认
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForHash().hasKey(progressKey, "d:" + seq))) {
+            //2.按主键分页查询粉丝 select id, user_id from tb_follow where follow_user_id = ? and id > ? order by id limit n
+            int size = Math.max(1, feedProperties.getFanoutChunkSize());
+            List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", cursor)
+                    .orderByAsc("id")
+                    .last("limit " + size));
+            boolean last = follows.size() < size;
+            //3.不是最后一批，先派发下一批，由其他消费者并行处理
+            if (!last && Boolean.TRUE.equals(stringRedisTemplate.opsForHash().putIfAbsent(progressKey, "n:" + seq, "1"))) {
+                addChunk(blogId, authorId, time, follows.get(follows.size() - 1).getId(), seq + 1);
+            }
+            //4.推送本批笔记，一次脚本调用写入并裁剪所有收件箱
+            feedInbox.push(follows.stream().map(Follow::getUserId).collect(Collectors.toList()), blogId, time);
+            //5.记录进度，最后一批记录总批数，完成数等于总批数时记录完成时间
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().putIfAbsent(progressKey, "d:" + seq, "1"))) {
+                if (last) {
+                    stringRedisTemplate.opsForHash().put(progressKey, "chunks", String.valueOf(seq + 1));
+                }
+                stringRedisTemplate.opsForHash().increment(progressKey, "pushed", follows.size());
+                Long done = stringRedisTemplate.opsForHash().increment(progressKey, "chunksDone", 1);
+                Object total = stringRedisTemplate.opsForHash().get(progressKey, "chunks");
+                if (total != null && done != null && done == Long.parseLong(total.toString())) {
+                    stringRedisTemplate.opsForHash().put(progressKey, "finishTime", String.valueOf(System.currentTimeMillis()));
+                }
+                chunks.incrementAndGet();
+                pushed.addAndGet(follows.size());
+            }
+        }
+        //6.确认并删除消息 XACK stream.feed g1 id、XDEL stream.feed id
+        stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, GROUP_NAME, record.getId());
+        stringRedisTemplate.opsForStream().delete(FEED_STREAM_KEY, record.getId());
+    }
+
+    /**
+     * 放弃超过最大投递次数的批次：记录失败的批次和游标，确认并删除消息
+     * 放弃的批次之后的粉丝不会收到推送(未派发下一批时)，可根据 f:seq 中的游标补推
+     */
+    private void giveUp(MapRecord<String, Object, Object> record, long deliveries) {
+        Map<Object, Object> value = record.getValue();
+        String progressKey = FEED_FANOUT_KEY + value.get("blogId");
+        Object seq = value.get("seq");
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().putIfAbsent(progressKey, "f:" + seq, value.get("cursor")))) {
+            stringRedisTemplate.opsForHash().increment(progressKey, "failedChunks", 1);
+        }
+        dropped.incrementAndGet();
+        log.error("笔记推送任务超过最大投递次数，放弃，recordId={}，blogId={}，seq={}，deliveries={}",
+                record.getId(), value.get("blogId"), seq, deliveries);
+        stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM_KEY, GROUP_NAME, record.getId());
+        stringRedisTemplate.opsForStream().delete(FEED_STREAM_KEY, record.getId());
+    }
+
+    private class FanoutHandler implements Runnable {
+
+        private final String consumerName;
+
+        /**
+         * 上次认领其他消费者空闲消息的时间
+         */
+        private long lastClaimMillis = System.currentTimeMillis();
+
+        FanoutHandler(String consumerName) {
+            this.consumerName = consumerName;
+        }
+
+        @Override
+        public void run() {
+            //启动时先处理本消费者上次未确认的任务
+            handlePendingList();
+            while (running) {
+                try {
+                    if (System.currentTimeMillis() - lastClaimMillis >= feedProperties.getFanoutClaimIdleMillis()) {
+                        lastClaimMillis = System.currentTimeMillis();
+                        claimIdle();
+                    }
+                    //1.读取推送任务 XREADGROUP g1 consumerName COUNT 1 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(GROUP_NAME, consumerName),
+                            StreamReadOptions.empty().count(1).block(Duration.ofMillis(feedProperties.getFanoutBlockMillis())),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.lastConsumed()));
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    //2.推送
+                    handleChunk(list.get(0));
+                } catch (Exception e) {
+                    if (!running) {
+                        return;
+                    }
+                    failed.incrementAndGet();
+                    log.error("笔记推送异常", e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        /**
+         * 重新处理本消费者PendingList中的任务 XREADGROUP g1 consumerName COUNT 1 STREAMS stream.feed 0
+         */
+        private void handlePendingList() {
+            while (running) {
+                try {
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            Consumer.from(GROUP_NAME, consumerName),
+                            StreamReadOptions.empty().count(1),
+                            StreamOffset.create(FEED_STREAM_KEY, ReadOffset.from("0")));
+                    if (list == null || list.isEmpty()) {
+                        return;
+                    }
+                    //每次从PendingList读取都会增加投递次数，超过上限时放弃
+                    MapRecord<String, Object, Object> record = list.get(0);
+                    long deliveries = deliveryCount(record.getId());
+                    if (deliveries > feedProperties.getFanoutMaxDeliveries()) {
+                        giveUp(record, deliveries);
+                        continue;
+                    }
+                    handleChunk(record);
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    log.error("处理笔记推送PendingList异常", e);
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 认领其他消费者(包括已下线节点)空闲过久的任务
+         */
+        private void claimIdle() {
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(FEED_STREAM_KEY, GROUP_NAME,
+                    Range.unbounded(), 10);
+            if (pendingMessages == null || pendingMessages.isEmpty()) {
+                return;
+            }
+            Duration minIdle = Duration.ofMillis(feedProperties.getFanoutClaimIdleMillis());
+            for (PendingMessage pending : pendingMessages) {
+                if (pending.getConsumerName().equals(consumerName)
+                        || pending.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                    continue;
+                }
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                        FEED_STREAM_KEY, GROUP_NAME, consumerName, minIdle, pending.getId());
+                if (records == null || records.isEmpty()) {
+                    continue;
+                }
+                //XCLAIM也会增加一次投递次数
+                long deliveries = pending.getTotalDeliveryCount() + 1;
+                if (deliveries > feedProperties.getFanoutMaxDeliveries()) {
+                    giveUp(records.get(0), deliveries);
+                    continue;
+                }
+                log.info("认领笔记推送任务，recordId={}，from={}", pending.getId(), pending.getConsumerName());
+                handleChunk(records.get(0));
+            }
+        }
+
+        /**
+         * 本消费者PendingList中消息的投递次数 XPENDING stream.feed g1 id id 1 consumerName
+         */
+        private long deliveryCount(RecordId id) {
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(FEED_STREAM_KEY,
+                    Consumer.from(GROUP_NAME, consumerName), Range.closed(id.getValue(), id.getValue()), 1L);
+            return pending == null || pending.isEmpty() ? 0 : pending.get(0).getTotalDeliveryCount();
+        }
+    }
+
+    private static Long toLong(Object value) {
+        return value == null ? null : Long.valueOf(value.toString());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
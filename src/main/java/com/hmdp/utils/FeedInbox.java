@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.FeedProperties;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 粉丝收件箱 feed:userId 的容量管理
+ * 1.推送时在Lua脚本中ZADD并按排名裁剪到inbox-max-len，每个用户的收件箱大小有上限
+ * 2.每次读取关注流时在 feed:active 中记录用户的最后活跃时间，定期淘汰超过inbox-idle-days未活跃用户的收件箱
+ * 3.收件箱被淘汰(或从未建立)的用户不再接收推送，回来后第一次读取时从关注的普通作者最近的笔记重建
+ */
+@Slf4j
+@Component
+public class FeedInbox {
+
+    private static final DefaultRedisScript<Long> PUSH_SCRIPT;
+    private static final DefaultRedisScript<Long> EVICT_SCRIPT;
+    static {
+        PUSH_SCRIPT = new DefaultRedisScript<>();
+        PUSH_SCRIPT.setLocation(new ClassPathResource("feed_push.lua"));
+        PUSH_SCRIPT.setResultType(Long.class);
+        EVICT_SCRIPT = new DefaultRedisScript<>();
+        EVICT_SCRIPT.setLocation(new ClassPathResource("feed_evict.lua"));
+        EVICT_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final BlogMapper blogMapper;
+
+    private final FeedProperties feedProperties;
+
+    public FeedInbox(StringRedisTemplate stringRedisTemplate, BlogMapper blogMapper, FeedProperties feedProperties) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.blogMapper = blogMapper;
+        this.feedProperties = feedProperties;
+    }
+
+    /**
+     * 推送笔记到一批粉丝的收件箱，一次脚本调用
+     * @return 实际写入的收件箱数，不活跃的粉丝不计入
+     */
+    public long push(List<Long> userIds, Long blogId, long time) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        String[] args = new String[userIds.size() + 3];
+        args[0] = blogId.toString();
+        args[1] = String.valueOf(time);
+        args[2] = String.valueOf(feedProperties.getInboxMaxLen());
+        for (int i = 0; i < userIds.size(); i++) {
+            args[i + 3] = userIds.get(i).toString();
+        }
+        Long pushed = stringRedisTemplate.execute(PUSH_SCRIPT, Collections.singletonList(FEED_ACTIVE_KEY), (Object[]) args);
+        return pushed == null ? 0 : pushed;
+    }
+
+    /**
+     * 记录用户活跃，用户不在活跃集合中时(收件箱已淘汰或从未建立)先重建收件箱
+     */
+    public void touch(Long userId) {
+        //ZADD feed:active now userId，返回true表示新加入
+        Boolean added = stringRedisTemplate.opsForZSet()
+                .add(FEED_ACTIVE_KEY, userId.toString(), System.currentTimeMillis());
+        if (!Boolean.TRUE.equals(added)) {
+            return;
+        }
+        try {
+            rebuild(userId);
+        } catch (RuntimeException e) {
+            //重建失败时移除活跃标记，下次读取再重建
+            stringRedisTemplate.opsForZSet().remove(FEED_ACTIVE_KEY, userId.toString());
+            throw e;
+        }
+    }
+
+    /**
+     * 从关注的普通作者最近的笔记重建收件箱，大V的笔记读取时从发件箱拉取，不写入收件箱
+     * 重建期间到达的推送直接写入收件箱，与重建结果合并
+     */
+    private void rebuild(Long userId) {
+        long begin = System.currentTimeMillis();
+        //1.关注的普通作者 SDIFF follow:userId feed:celebrities
+        Set<String> followees = stringRedisTemplate.opsForSet().difference(FOLLOW_KEY + userId, FEED_CELEBRITY_KEY);
+        if (followees == null || followees.isEmpty()) {
+            return;
+        }
+        //2.查询最近的笔记 select id, create_time from tb_blog where user_id in (...) and create_time >= ?
+        //  order by create_time desc limit inbox-max-len
+        int maxLen = feedProperties.getInboxMaxLen();
+        List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                .select("id", "create_time")
+                .in("user_id", new ArrayList<>(followees))
+                .ge("create_time", LocalDateTime.now().minusDays(feedProperties.getRebuildLookbackDays()))
+                .orderByDesc("create_time")
+                .last("limit " + maxLen));
+        if (blogs.isEmpty()) {
+            return;
+        }
+        //3.一次ZADD写入收件箱并裁剪
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(blogs.size());
+        for (Blog blog : blogs) {
+            long time = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), (double) time));
+        }
+        String key = FEED_KEY + userId;
+        stringRedisTemplate.opsForZSet().add(key, tuples);
+        stringRedisTemplate.opsForZSet().removeRange(key, 0, -maxLen - 1);
+        log.debug("重建收件箱，userId={}，followees={}，blogs={}，time={}ms",
+                userId, followees.size(), blogs.size(), System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 定期淘汰不活跃用户的收件箱，每批在一个脚本中删除
+     */
+    @Scheduled(fixedDelayString = "${hmdp.feed.evict-interval-millis:3600000}")
+    public void evictIdle() {
+        try {
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(feedProperties.getInboxIdleDays());
+            int batchSize = feedProperties.getEvictBatchSize();
+            long evicted = 0;
+            Long count;
+            do {
+                count = stringRedisTemplate.execute(EVICT_SCRIPT, Collections.singletonList(FEED_ACTIVE_KEY),
+                        String.valueOf(cutoff), String.valueOf(batchSize));
+                evicted += count == null ? 0 : count;
+            } while (count != null && count >= batchSize);
+            if (evicted > 0) {
+                log.info("淘汰不活跃用户的收件箱{}个", evicted);
+            }
+        } catch (Exception e) {
+            log.error("淘汰收件箱失败", e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 文件事件源，定时读取文件新追加的行，每行一个RowChangeEvent的json
+ * 可由外部binlog解析工具写入，也可在测试中手动追加
+ * 启动时从文件末尾开始读取，不重放历史事件
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hmdp.cache", name = "cdc-source", havingValue = "file")
+public class FileChangeEventSource implements ChangeEventSource {
+
+    private static final long POLL_INTERVAL_MILLIS = 200;
+
+    private final File file;
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * 已读取到的位置
+     */
+    private long offset = -1;
+
+    public FileChangeEventSource(CacheProperties cacheProperties) {
+        this.file = new File(cacheProperties.getCdcFile());
+    }
+
+    @Override
+    public void start(Consumer<RowChangeEvent> consumer) {
+        poller.scheduleWithFixedDelay(() -> poll(consumer), 0, POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        poller.shutdownNow();
+    }
+
+    private void poll(Consumer<RowChangeEvent> consumer) {
+        if (!file.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (offset < 0 || offset > raf.length()) {
+                //首次读取或文件被截断，从末尾开始
+                offset = raf.length();
+                return;
+            }
+            raf.seek(offset);
+            String line;
+            while ((line = raf.readLine()) != null) {
+                //只处理完整的行，未写完的行下次再读
+                if (raf.getFilePointer() == raf.length() && !endsWithNewline(raf)) {
+                    break;
+                }
+                offset = raf.getFilePointer();
+                line = new String(line.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8).trim();
+                if (!line.isEmpty()) {
+                    consumer.accept(JSONUtil.toBean(line, RowChangeEvent.class));
+                }
+            }
+        } catch (IOException e) {
+            log.error("读取变更事件文件失败，file={}", file, e);
+        } catch (Exception e) {
+            log.error("解析变更事件失败，file={}", file, e);
+        }
+    }
+
+    private static boolean endsWithNewline(RandomAccessFile raf) throws IOException {
+        long position = raf.getFilePointer();
+        raf.seek(raf.length() - 1);
+        boolean newline = raf.read() == '\n';
+        raf.seek(position);
+        return newline;
+    }
+}
@@ -0,0 +1,322 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 热点key探测
+ * 按采样率记录redis读请求，滑动窗口由多个Count-Min Sketch组成，每秒淘汰最旧的一个
+ * 小顶堆保留访问次数最多的K个key，窗口内次数达到阈值的key提升为热点，读请求改为读取短过期时间的本地副本
+ * 次数降到阈值一半以下时撤销热点并删除副本
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    private static final int SKETCH_DEPTH = 4;
+
+    private static final int SKETCH_WIDTH = 2048;
+
+    /**
+     * 副本key中区分同一个redis key下不同数据的分隔符，例如 blog:liked:1#1010
+     */
+    private static final String REPLICA_SEPARATOR = "#";
+
+    private final CacheProperties cacheProperties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 滑动窗口，每个元素统计一秒
+     */
+    private final CountMinSketch[] window;
+
+    private volatile int current;
+
+    /**
+     * 访问次数最多的K个key，小顶堆，通过index定位
+     */
+    private final PriorityQueue<HotKey> topK = new PriorityQueue<>(Comparator.comparingLong(HotKey::getCount));
+
+    private final Map<String, HotKey> topKIndex = new HashMap<>();
+
+    /**
+     * 堆满时堆顶的次数，小于它的key无需加锁更新堆
+     */
+    private volatile long topKMin;
+
+    /**
+     * 热点key -> 提升时间
+     */
+    private final Map<String, Long> hotKeys = new ConcurrentHashMap<>();
+
+    /**
+     * 热点key的本地副本
+     */
+    private final Cache<String, Object> replicas;
+
+    private final AtomicLong sampled = new AtomicLong();
+
+    private final AtomicLong promoted = new AtomicLong();
+
+    private final ScheduledExecutorService windowRotator = Executors.newSingleThreadScheduledExecutor();
+
+    public HotKeyDetector(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                          RedisMessageListenerContainer listenerContainer) {
+        this.cacheProperties = cacheProperties;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.window = new CountMinSketch[Math.max(1, cacheProperties.getHotKeyWindowSeconds())];
+        for (int i = 0; i < window.length; i++) {
+            window[i] = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+        }
+        this.replicas = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(cacheProperties.getHotKeyLocalTtl(), TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        //与本地一级缓存共用失效通知
+        listenerContainer.addMessageListener(
+                (message, pattern) -> invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    @PostConstruct
+    private void init() {
+        windowRotator.scheduleAtFixedRate(this::rotate, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        windowRotator.shutdownNow();
+    }
+
+    /**
+     * 读取redis中的数据，热点key优先读取本地副本
+     * @param key redis key，用于统计访问次数
+     * @param replicaKey 本地副本的key，同一个redis key下按成员区分时使用 key#member
+     * @param loader 从redis读取，返回null时不缓存
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T read(String key, String replicaKey, Supplier<T> loader) {
+        record(key);
+        if (!isHot(key)) {
+            return loader.get();
+        }
+        return (T) replicas.get(replicaKey, k -> loader.get());
+    }
+
+    public <T> T read(String key, Supplier<T> loader) {
+        return read(key, key, loader);
+    }
+
+    /**
+     * 按采样率记录一次访问
+     */
+    public void record(String key) {
+        double sampleRate = cacheProperties.getHotKeySampleRate();
+        if (!cacheProperties.isHotKeyEnabled() || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        sampled.incrementAndGet();
+        window[current].add(key);
+        long count = (long) (estimate(key) / sampleRate);
+        //1.更新top K
+        if (count > topKMin) {
+            synchronized (topK) {
+                offer(key, count);
+            }
+        }
+        //2.达到阈值提升为热点
+        if (count >= cacheProperties.getHotKeyThreshold() && hotKeys.putIfAbsent(key, System.currentTimeMillis()) == null) {
+            promoted.incrementAndGet();
+            log.info("发现热点key，key={}，count={}", key, count);
+        }
+    }
+
+    /**
+     * 窗口内的估算访问次数
+     */
+    public long count(String key) {
+        if (!cacheProperties.isHotKeyEnabled()) {
+            return 0;
+        }
+        return (long) (estimate(key) / cacheProperties.getHotKeySampleRate());
+    }
+
+    public boolean isHot(String key) {
+        return cacheProperties.isHotKeyEnabled() && hotKeys.containsKey(key);
+    }
+
+    /**
+     * 数据修改后调用，删除本机副本，热点key同时通知其他节点
+     * 非热点key的其他节点副本最多在过期时间内不一致
+     */
+    public void invalidate(String key) {
+        boolean hot = isHot(key);
+        invalidateLocal(key);
+        if (hot) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
+
+    /**
+     * 删除本机key及其所有成员的副本
+     */
+    public void invalidateLocal(String key) {
+        String memberPrefix = key + REPLICA_SEPARATOR;
+        replicas.asMap().keySet().removeIf(k -> k.equals(key) || k.startsWith(memberPrefix));
+    }
+
+    /**
+     * 成员级别的副本key
+     */
+    public static String replicaKey(String key, Object member) {
+        return key + REPLICA_SEPARATOR + member;
+    }
+
+    /**
+     * 热点key、访问次数最多的key和副本命中率
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        List<Map<String, Object>> hot = new ArrayList<>();
+        hotKeys.forEach((key, promotedAt) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", key);
+            item.put("count", count(key));
+            item.put("promotedAt", promotedAt);
+            hot.add(item);
+        });
+        List<HotKey> top;
+        synchronized (topK) {
+            top = new ArrayList<>(topK);
+        }
+        top.sort(Comparator.comparingLong(HotKey::getCount).reversed());
+        List<Map<String, Object>> topList = new ArrayList<>();
+        for (HotKey hotKey : top) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", hotKey.key);
+            item.put("count", hotKey.count);
+            topList.add(item);
+        }
+        CacheStats replicaStats = replicas.stats();
+        stats.put("hotKeys", hot);
+        stats.put("topK", topList);
+        stats.put("replicaSize", replicas.estimatedSize());
+        stats.put("replicaHitCount", replicaStats.hitCount());
+        stats.put("replicaMissCount", replicaStats.missCount());
+        stats.put("replicaHitRate", replicaStats.hitRate());
+        stats.put("sampled", sampled.get());
+        stats.put("promoted", promoted.get());
+        return stats;
+    }
+
+    /**
+     * 窗口前进一秒：清空最旧的统计，重新计算top K，撤销冷却的热点
+     */
+    private void rotate() {
+        try {
+            int next = (current + 1) % window.length;
+            window[next].clear();
+            current = next;
+            double sampleRate = cacheProperties.getHotKeySampleRate();
+            synchronized (topK) {
+                List<HotKey> keys = new ArrayList<>(topK);
+                topK.clear();
+                topKIndex.clear();
+                topKMin = 0;
+                for (HotKey hotKey : keys) {
+                    long count = (long) (estimate(hotKey.key) / sampleRate);
+                    if (count > 0) {
+                        offer(hotKey.key, count);
+                    }
+                }
+            }
+            long coolDown = cacheProperties.getHotKeyThreshold() / 2;
+            hotKeys.keySet().removeIf(key -> {
+                if (estimate(key) / sampleRate >= coolDown) {
+                    return false;
+                }
+                invalidateLocal(key);
+                log.info("热点key冷却，key={}", key);
+                return true;
+            });
+        } catch (Exception e) {
+            log.error("热点key窗口滚动失败", e);
+        }
+    }
+
+    /**
+     * 窗口内的估算次数(采样后)
+     */
+    private long estimate(String key) {
+        long sum = 0;
+        for (CountMinSketch sketch : window) {
+            sum += sketch.estimate(key);
+        }
+        return sum;
+    }
+
+    /**
+     * 更新小顶堆，调用方需持有topK的锁
+     */
+    private void offer(String key, long count) {
+        HotKey existing = topKIndex.get(key);
+        if (existing != null) {
+            topK.remove(existing);
+            existing.count = count;
+            topK.add(existing);
+        } else if (topK.size() < cacheProperties.getHotKeyTopK()) {
+            HotKey hotKey = new HotKey(key, count);
+            topK.add(hotKey);
+            topKIndex.put(key, hotKey);
+        } else if (count > topK.peek().count) {
+            topKIndex.remove(topK.poll().key);
+            HotKey hotKey = new HotKey(key, count);
+            topK.add(hotKey);
+            topKIndex.put(key, hotKey);
+        }
+        topKMin = topK.size() < cacheProperties.getHotKeyTopK() ? 0 : topK.peek().count;
+    }
+
+    private static class HotKey {
+        private final String key;
+        private long count;
+
+        HotKey(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.FeedProperties;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.Data;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 推拉结合的关注流
+ * 写：粉丝数未达到celebrity-threshold的作者推送到每个粉丝的收件箱 feed:userId；
+ *    达到的作者(大V)只写入自己的发件箱 outbox:authorId，并加入集合feed:celebrities，之后一直按大V处理
+ * 收件箱的容量和淘汰、重建由FeedInbox管理
+ * 读：收件箱与关注的大V发件箱(follow:userId 与 feed:celebrities 的交集)各取一段，按时间戳多路归并，
+ *    滚动分页的 minTime/offset 含义不变：offset为已返回的、时间戳等于minTime的笔记数
+ */
+@Component
+public class HybridFeed {
+
+    /**
+     * 归并顺序与ZREVRANGEBYSCORE一致：时间戳倒序，相同时按笔记id字符串倒序
+     */
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>>comparingDouble(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue)
+                    .reversed();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final FollowMapper followMapper;
+
+    private final FeedProperties feedProperties;
+
+    private final FeedFanout feedFanout;
+
+    private final FeedInbox feedInbox;
+
+    public HybridFeed(StringRedisTemplate stringRedisTemplate, FollowMapper followMapper,
+                      FeedProperties feedProperties, FeedFanout feedFanout, FeedInbox feedInbox) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.followMapper = followMapper;
+        this.feedProperties = feedProperties;
+        this.feedFanout = feedFanout;
+        this.feedInbox = feedInbox;
+    }
+
+    /**
+     * 发布笔记
+     * @return true表示写入了大V发件箱，false表示提交了推送任务
+     */
+    public boolean publish(Long blogId, Long authorId, long time) {
+        if (isCelebrity(authorId)) {
+            //ZADD outbox:authorId time blogId，只保留最近的outbox-max-len篇
+            String key = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.opsForZSet().add(key, blogId.toString(), time);
+            stringRedisTemplate.opsForZSet().removeRange(key, 0, -feedProperties.getOutboxMaxLen() - 1);
+            return true;
+        }
+        feedFanout.submit(blogId, authorId, time);
+        return false;
+    }
+
+    /**
+     * 关注、取关时调整缓存的粉丝数，缓存不存在时不处理，下次发布笔记时从数据库统计
+     */
+    public void adjustFans(Long authorId, long delta) {
+        String key = FEED_FANS_KEY + authorId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            stringRedisTemplate.opsForValue().increment(key, delta);
+        }
+    }
+
+    /**
+     * 滚动查询关注流
+     * @param max 上一页的最小时间戳，第一页为当前时间
+     * @param offset 上一页中时间戳等于max的笔记数，第一页为0
+     * @param count 每页数量
+     */
+    public FeedPage read(Long userId, long max, int offset, int count) {
+        //1.记录活跃，收件箱已淘汰时重建
+        feedInbox.touch(userId);
+        //2.查询关注的大V
+        Set<String> celebrities = stringRedisTemplate.opsForSet().intersect(FOLLOW_KEY + userId, FEED_CELEBRITY_KEY);
+        List<ZSetOperations.TypedTuple<String>> tuples;
+        if (celebrities == null || celebrities.isEmpty()) {
+            //3.没有关注大V，只查询收件箱
+            Set<ZSetOperations.TypedTuple<String>> inbox = stringRedisTemplate.opsForZSet()
+                    .reverseRangeByScoreWithScores(FEED_KEY + userId, 0, max, offset, count);
+            tuples = inbox == null ? Collections.emptyList() : new ArrayList<>(inbox);
+        } else {
+            //4.收件箱和每个发件箱各取前offset + count条，pipeline一次查询后归并
+            List<String> keys = new ArrayList<>(celebrities.size() + 1);
+            keys.add(FEED_KEY + userId);
+            celebrities.forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+            RedisZSetCommands.Range range = RedisZSetCommands.Range.range().gte(0).lte(max);
+            RedisZSetCommands.Limit limit = RedisZSetCommands.Limit.limit().count(offset + count);
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.zSetCommands().zRevRangeByScoreWithScores(
+                            key.getBytes(StandardCharsets.UTF_8), range, limit);
+                }
+                return null;
+            });
+            List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(results.size());
+            for (Object result : results) {
+                @SuppressWarnings("unchecked")
+                Set<ZSetOperations.TypedTuple<String>> source = (Set<ZSetOperations.TypedTuple<String>>) result;
+                if (source != null && !source.isEmpty()) {
+                    sources.add(new ArrayList<>(source));
+                }
+            }
+            tuples = merge(sources, offset, count);
+        }
+        //5.计算下一页的minTime和offset
+        FeedPage page = new FeedPage();
+        page.setIds(new ArrayList<>(tuples.size()));
+        long minTime = 0;
+        int os = 1;
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            page.getIds().add(Long.valueOf(tuple.getValue()));
+            long time = tuple.getScore().longValue();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        //整页的时间戳都等于max时，需要累加上一页的offset，否则下一页会重复返回这一页
+        if (minTime == max) {
+            os += offset;
+        }
+        page.setMinTime(minTime);
+        page.setOffset(os);
+        return page;
+    }
+
+    /**
+     * 多路归并，每一路已按ORDER排序，跳过前offset条后取count条
+     */
+    static List<ZSetOperations.TypedTuple<String>> merge(List<List<ZSetOperations.TypedTuple<String>>> sources,
+                                                         int offset, int count) {
+        //堆中保存 {路下标, 路内位置}
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> ORDER.compare(sources.get(a[0]).get(a[1]), sources.get(b[0]).get(b[1])));
+        for (int i = 0; i < sources.size(); i++) {
+            heap.add(new int[]{i, 0});
+        }
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>(count);
+        int skipped = 0;
+        while (!heap.isEmpty() && merged.size() < count) {
+            int[] head = heap.poll();
+            List<ZSetOperations.TypedTuple<String>> source = sources.get(head[0]);
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                merged.add(source.get(head[1]));
+            }
+            if (++head[1] < source.size()) {
+                heap.add(head);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * 已在大V集合中，或粉丝数达到阈值(缓存在 feed:fans:authorId，未命中时从数据库统计)
+     */
+    private boolean isCelebrity(Long authorId) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_CELEBRITY_KEY, authorId.toString()))) {
+            return true;
+        }
+        String key = FEED_FANS_KEY + authorId;
+        String cached = stringRedisTemplate.opsForValue().get(key);
+        long fans;
+        if (cached != null) {
+            fans = Long.parseLong(cached);
+        } else {
+            //select count(*) from tb_follow where follow_user_id = ?
+            fans = followMapper.selectCount(new QueryWrapper<Follow>().eq("follow_user_id", authorId));
+            stringRedisTemplate.opsForValue().set(key, String.valueOf(fans),
+                    feedProperties.getFansCacheTtlMinutes(), TimeUnit.MINUTES);
+        }
+        if (fans < feedProperties.getCelebrityThreshold()) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().add(FEED_CELEBRITY_KEY, authorId.toString());
+        return true;
+    }
+
+    /**
+     * 一页关注流：笔记id和下一页的滚动参数
+     */
+    @Data
+    public static class FeedPage {
+        private List<Long> ids;
+        private Long minTime;
+        private Integer offset;
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 本地一级缓存
+ * 每个缓存前缀对应一个Caffeine缓存(W-TinyLFU淘汰)，容量和过期时间可单独配置
+ * 通过Redis发布订阅通知所有节点删除失效的key
+ */
+@Slf4j
+@Component
+public class LocalCache {
+
+    private final CacheProperties cacheProperties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 缓存前缀 -> 本地缓存
+     */
+    private final Map<String, Cache<String, Object>> caches = new ConcurrentHashMap<>();
+
+    public LocalCache(CacheProperties cacheProperties, StringRedisTemplate stringRedisTemplate,
+                      RedisMessageListenerContainer listenerContainer) {
+        this.cacheProperties = cacheProperties;
+        this.stringRedisTemplate = stringRedisTemplate;
+        //订阅失效通知，消息内容为失效的key
+        listenerContainer.addMessageListener(
+                (message, pattern) -> invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 查询本地缓存，未开启或未命中返回null
+     */
+    public <R> R get(String keyPrefix, String key, Class<R> type) {
+        if (!cacheProperties.isLocalEnabled()) {
+            return null;
+        }
+        Object value = getCache(keyPrefix).getIfPresent(key);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    /**
+     * 写入本地缓存
+     */
+    public void put(String keyPrefix, String key, Object value) {
+        if (!cacheProperties.isLocalEnabled() || value == null) {
+            return;
+        }
+        getCache(keyPrefix).put(key, value);
+    }
+
+    /**
+     * 删除本机缓存并通知其他节点删除
+     */
+    public void invalidate(String key) {
+        invalidateLocal(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 只删除本机缓存
+     */
+    public void invalidateLocal(String key) {
+        for (Cache<String, Object> cache : caches.values()) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * 各前缀的命中统计
+     */
+    public Map<String, Map<String, Object>> stats() {
+        Map<String, Map<String, Object>> result = new LinkedHashMap<>();
+        caches.forEach((prefix, cache) -> {
+            CacheStats stats = cache.stats();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("size", cache.estimatedSize());
+            item.put("hitCount", stats.hitCount());
+            item.put("missCount", stats.missCount());
+            item.put("hitRate", stats.hitRate());
+            item.put("evictionCount", stats.evictionCount());
+            result.put(prefix, item);
+        });
+        return result;
+    }
+
+    private Cache<String, Object> getCache(String keyPrefix) {
+        return caches.computeIfAbsent(keyPrefix, prefix -> {
+            Long ttl = cacheProperties.getLocalTtl().getOrDefault(prefix, cacheProperties.getLocalDefaultTtl());
+            return Caffeine.newBuilder()
+                    .maximumSize(cacheProperties.getLocalMaximumSize())
+                    .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                    .recordStats()
+                    .build();
+        });
+    }
+}
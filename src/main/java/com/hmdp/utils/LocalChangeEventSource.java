@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Consumer;
+
+/**
+ * 进程内事件源，由业务代码在修改数据后发布变更事件
+ * 只能覆盖经过本服务的写入，直接修改数据库的变更需要binlog或文件事件源
+ */
+@Component
+public class LocalChangeEventSource implements ChangeEventSource {
+
+    private volatile Consumer<RowChangeEvent> consumer;
+
+    @Override
+    public void start(Consumer<RowChangeEvent> consumer) {
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void stop() {
+        this.consumer = null;
+    }
+
+    /**
+     * 发布变更事件，处于事务中时在提交后发布，避免删除缓存后旧数据被重新写回
+     */
+    public void publish(String table, String type, Long id) {
+        RowChangeEvent event = new RowChangeEvent(table, type, id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deliver(event);
+                }
+            });
+        } else {
+            deliver(event);
+        }
+    }
+
+    private void deliver(RowChangeEvent event) {
+        Consumer<RowChangeEvent> current = consumer;
+        if (current != null) {
+            current.accept(event);
+        }
+    }
+}
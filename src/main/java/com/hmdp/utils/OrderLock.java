@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 订单消费者保存订单时的一人一单锁
+ * 锁方式由hmdp.seckill.order-lock-mode指定：
+ * global：所有用户共用一把redisson锁 lock:order:，所有消费者串行
+ * redisson：每个用户一把redisson锁 lock:order:userId
+ * local：本节点按userId分段的ReentrantLock，只在同一个JVM内的消费者之间互斥
+ * none：不加锁
+ * 任何方式下最终都由数据库唯一索引uk_user_voucher(user_id, voucher_id)保证一人一单，
+ * 锁只用于减少同一用户的订单在唯一索引上冲突后回滚重试
+ */
+@Component
+public class OrderLock {
+
+    private static final String LOCK_KEY = "lock:order:";
+
+    private final SeckillProperties seckillProperties;
+
+    private final RedissonClient redissonClient;
+
+    private final ReentrantLock[] stripes;
+
+    public OrderLock(SeckillProperties seckillProperties, RedissonClient redissonClient) {
+        this.seckillProperties = seckillProperties;
+        this.redissonClient = redissonClient;
+        this.stripes = new ReentrantLock[Math.max(1, seckillProperties.getOrderLockStripes())];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * 持有这些用户的锁执行，阻塞等待，不会因为锁被占用而丢弃订单
+     */
+    public <T> T execute(Collection<Long> userIds, Supplier<T> action) {
+        String mode = seckillProperties.getOrderLockMode();
+        if ("global".equals(mode)) {
+            return withRedissonLock(redissonClient.getLock(LOCK_KEY), action);
+        }
+        if ("redisson".equals(mode)) {
+            RLock[] locks = new TreeSet<>(userIds).stream()
+                    .map(userId -> redissonClient.getLock(LOCK_KEY + userId))
+                    .toArray(RLock[]::new);
+            RLock lock = locks.length == 1 ? locks[0] : redissonClient.getMultiLock(locks);
+            return withRedissonLock(lock, action);
+        }
+        if ("local".equals(mode)) {
+            return withStripes(userIds, action);
+        }
+        return action.get();
+    }
+
+    private <T> T withRedissonLock(RLock lock, Supplier<T> action) {
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按分段下标从小到大加锁，多个消费者同时锁多个分段时不会死锁
+     */
+    private <T> T withStripes(Collection<Long> userIds, Supplier<T> action) {
+        TreeSet<Integer> indexes = new TreeSet<>();
+        for (Long userId : userIds) {
+            indexes.add(Math.floorMod(Long.hashCode(userId) * 0x9E3779B9, stripes.length));
+        }
+        for (Integer index : indexes) {
+            stripes[index].lock();
+        }
+        try {
+            return action.get();
+        } finally {
+            for (Integer index : indexes.descendingSet()) {
+                stripes[index].unlock();
+            }
+        }
+    }
+}
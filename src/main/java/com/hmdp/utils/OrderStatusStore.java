@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STATUS_KEY;
+
+/**
+ * 秒杀订单的异步处理结果
+ * 每个订单一个短期hash seckill:order-status:orderId，字段 s=状态、u=用户id
+ * 下单脚本写入queued，消费者保存后更新为persisted、duplicate或failed，并通过发布订阅通知各节点等待中的长轮询请求
+ */
+@Slf4j
+@Component
+public class OrderStatusStore {
+
+    public static final String QUEUED = "queued";
+    public static final String PERSISTED = "persisted";
+    public static final String DUPLICATE = "duplicate";
+    public static final String FAILED = "failed";
+
+    private static final byte[] STATUS_FIELD = bytes("s");
+    private static final byte[] USER_FIELD = bytes("u");
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    /**
+     * 订单id -> 本节点等待结果的回调
+     */
+    private final Map<Long, Set<Consumer<String>>> waiters = new ConcurrentHashMap<>();
+
+    public OrderStatusStore(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                            RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        //消息格式 orderId:status
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.indexOf(':');
+            Set<Consumer<String>> callbacks = waiters.remove(Long.valueOf(body.substring(0, index)));
+            if (callbacks != null) {
+                String status = body.substring(index + 1);
+                callbacks.forEach(callback -> callback.accept(status));
+            }
+        }, new ChannelTopic(SECKILL_ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 订单进入消息队列，由Java写入消息队列的分片下单使用，未分片时由下单脚本写入
+     */
+    public void queued(Long orderId, Long userId) {
+        String key = SECKILL_ORDER_STATUS_KEY + orderId;
+        Map<String, String> values = new HashMap<>(4);
+        values.put("s", QUEUED);
+        values.put("u", userId.toString());
+        stringRedisTemplate.opsForHash().putAll(key, values);
+        stringRedisTemplate.expire(key, seckillProperties.getOrderStatusTtlSeconds(), TimeUnit.SECONDS);
+    }
+
+    /**
+     * 批量记录消费者的处理结果并通知等待的请求，失败只记录日志，不影响消息确认
+     * @param statuses 订单 -> 状态
+     */
+    public void record(Map<VoucherOrder, String> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        long ttl = seckillProperties.getOrderStatusTtlSeconds();
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                statuses.forEach((order, status) -> {
+                    byte[] key = bytes(SECKILL_ORDER_STATUS_KEY + order.getId());
+                    connection.hashCommands().hSet(key, STATUS_FIELD, bytes(status));
+                    connection.hashCommands().hSet(key, USER_FIELD, bytes(order.getUserId().toString()));
+                    connection.keyCommands().expire(key, ttl);
+                    connection.publish(bytes(SECKILL_ORDER_STATUS_CHANNEL), bytes(order.getId() + ":" + status));
+                });
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("记录订单状态失败，size={}", statuses.size(), e);
+        }
+    }
+
+    /**
+     * 查询订单状态
+     * @return s=状态、u=用户id，不存在或已过期时为空
+     */
+    public Map<Object, Object> get(Long orderId) {
+        return stringRedisTemplate.opsForHash().entries(SECKILL_ORDER_STATUS_KEY + orderId);
+    }
+
+    /**
+     * 等待订单状态变化，回调在发布订阅线程中执行，只会被调用一次
+     */
+    public void await(Long orderId, Consumer<String> callback) {
+        waiters.computeIfAbsent(orderId, id -> ConcurrentHashMap.newKeySet()).add(callback);
+    }
+
+    /**
+     * 取消等待，请求超时或结束时调用
+     */
+    public void cancel(Long orderId, Consumer<String> callback) {
+        waiters.computeIfPresent(orderId, (id, callbacks) -> {
+            callbacks.remove(callback);
+            return callbacks.isEmpty() ? null : callbacks;
+        });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
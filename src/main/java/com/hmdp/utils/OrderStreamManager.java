@@ -0,0 +1,228 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 订单消息队列stream.orders的维护
+ * 1.ACK后按条数触发裁剪：消息数超过stream-max-len时 XTRIM MINID ~ 最早未确认的消息，已确认的消息才会被删除
+ * 2.认领空闲消息：扫描消费者组的PendingList，空闲超过claim-idle-millis的消息(包括已宕机节点的)由当前消费者XCLAIM后重新处理
+ * 3.死信：投递次数达到max-deliveries的消息转移到stream.orders.dlq并ACK，不再重试
+ */
+@Slf4j
+@Component
+public class OrderStreamManager {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private final OrderStatusStore orderStatusStore;
+
+    private final AtomicLong ackedSinceTrim = new AtomicLong();
+
+    private final AtomicBoolean trimming = new AtomicBoolean();
+
+    private final AtomicLong acked = new AtomicLong();
+
+    private final AtomicLong trimmed = new AtomicLong();
+
+    private final AtomicLong claimed = new AtomicLong();
+
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    public OrderStreamManager(StringRedisTemplate stringRedisTemplate, SeckillProperties seckillProperties,
+                              OrderStatusStore orderStatusStore) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillProperties = seckillProperties;
+        this.orderStatusStore = orderStatusStore;
+    }
+
+    /**
+     * XACK stream.orders g1 id1 id2 ...，累计确认条数达到trim-every-acks时裁剪一次
+     */
+    public void acknowledge(RecordId... ids) {
+        stringRedisTemplate.opsForStream().acknowledge(ORDER_STREAM_KEY, ORDER_STREAM_GROUP, ids);
+        acked.addAndGet(ids.length);
+        if (ackedSinceTrim.addAndGet(ids.length) >= seckillProperties.getTrimEveryAcks()
+                && trimming.compareAndSet(false, true)) {
+            try {
+                ackedSinceTrim.set(0);
+                trim();
+            } catch (Exception e) {
+                log.warn("裁剪订单消息队列失败", e);
+            } finally {
+                trimming.set(false);
+            }
+        }
+    }
+
+    /**
+     * 消息数超过上限时删除已确认的消息
+     * 直接MAXLEN裁剪可能删掉积压中还未处理的订单，因此以最早未确认的消息(没有时为组内最后投递的消息)为界，
+     * XTRIM MINID ~ 只删除更早的消息，~表示按节点整块删除，开销低但可能少删一些
+     */
+    public void trim() {
+        Long size = stringRedisTemplate.opsForStream().size(ORDER_STREAM_KEY);
+        if (size == null || size <= seckillProperties.getStreamMaxLen()) {
+            return;
+        }
+        PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(ORDER_STREAM_KEY, ORDER_STREAM_GROUP);
+        String minId;
+        if (summary != null && summary.getTotalPendingMessages() > 0) {
+            minId = summary.minMessageId();
+        } else {
+            StreamInfo.XInfoGroup group = group();
+            if (group == null) {
+                return;
+            }
+            minId = group.lastDeliveredId();
+        }
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+                bytes(ORDER_STREAM_KEY), bytes("MINID"), bytes("~"), bytes(minId)));
+        trimmed.incrementAndGet();
+    }
+
+    /**
+     * 扫描PendingList中最早的一批消息：投递次数过多的转入死信队列，空闲过久的认领给当前消费者并交给handler处理
+     * @param consumerName 当前消费者
+     * @param handler 处理认领到的消息，负责成功后ACK，返回是否成功
+     */
+    public void claimIdle(String consumerName, Predicate<MapRecord<String, Object, Object>> handler) {
+        //XPENDING stream.orders g1 - + count
+        PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(ORDER_STREAM_KEY, ORDER_STREAM_GROUP,
+                Range.unbounded(), seckillProperties.getBatchSize());
+        if (pendingMessages == null || pendingMessages.isEmpty()) {
+            return;
+        }
+        Duration minIdle = Duration.ofMillis(seckillProperties.getClaimIdleMillis());
+        for (PendingMessage pending : pendingMessages) {
+            if (pending.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                continue;
+            }
+            //1.投递次数过多，转入死信队列
+            if (pending.getTotalDeliveryCount() >= seckillProperties.getMaxDeliveries()) {
+                deadLetter(pending);
+                continue;
+            }
+            //2.认领，XCLAIM只会成功一次，多个消费者同时认领时其他消费者拿到空列表
+            List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().claim(
+                    ORDER_STREAM_KEY, ORDER_STREAM_GROUP, consumerName, minIdle, pending.getId());
+            if (records == null || records.isEmpty()) {
+                continue;
+            }
+            claimed.incrementAndGet();
+            if (!pending.getConsumerName().equals(consumerName)) {
+                log.info("认领订单消息，recordId={}，from={}，deliveries={}",
+                        pending.getId(), pending.getConsumerName(), pending.getTotalDeliveryCount());
+            }
+            for (MapRecord<String, Object, Object> record : records) {
+                handler.test(record);
+            }
+        }
+    }
+
+    /**
+     * 消息复制到死信队列后ACK，原消息已被删除时直接ACK
+     * 死信消息对应的redis库存已扣减、订单未保存，需要人工处理
+     */
+    private void deadLetter(PendingMessage pending) {
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(ORDER_STREAM_KEY, Range.closed(pending.getIdAsString(), pending.getIdAsString()));
+        if (records != null && !records.isEmpty()) {
+            Map<String, String> values = new HashMap<>();
+            records.get(0).getValue().forEach((k, v) -> values.put(k.toString(), v.toString()));
+            values.put("sourceId", pending.getIdAsString());
+            values.put("consumer", pending.getConsumerName());
+            values.put("deliveries", String.valueOf(pending.getTotalDeliveryCount()));
+            stringRedisTemplate.opsForStream().add(StreamRecords.mapBacked(values).withStreamKey(ORDER_DLQ_KEY));
+            stringRedisTemplate.opsForStream().trim(ORDER_DLQ_KEY, seckillProperties.getDlqMaxLen(), true);
+            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(records.get(0).getValue(), new VoucherOrder(), true);
+            orderStatusStore.record(Collections.singletonMap(voucherOrder, OrderStatusStore.FAILED));
+        }
+        stringRedisTemplate.opsForStream().acknowledge(ORDER_STREAM_KEY, ORDER_STREAM_GROUP, pending.getId());
+        deadLettered.incrementAndGet();
+        log.error("订单消息投递{}次仍失败，转入死信队列，recordId={}", pending.getTotalDeliveryCount(), pending.getId());
+    }
+
+    /**
+     * 队列长度、消费延迟、未确认消息数和各消费者空闲时间
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        StreamInfo.XInfoStream info = stringRedisTemplate.opsForStream().info(ORDER_STREAM_KEY);
+        StreamInfo.XInfoGroup group = group();
+        stats.put("length", info.streamLength());
+        stats.put("lastGeneratedId", info.lastGeneratedId());
+        if (group != null) {
+            stats.put("lastDeliveredId", group.lastDeliveredId());
+            //消费延迟：最新消息与组内最后投递消息的时间差
+            stats.put("lagMillis", Math.max(0, idMillis(info.lastGeneratedId()) - idMillis(group.lastDeliveredId())));
+            stats.put("pending", group.pendingCount());
+            List<Map<String, Object>> consumers = new ArrayList<>();
+            stringRedisTemplate.opsForStream().consumers(ORDER_STREAM_KEY, ORDER_STREAM_GROUP).stream().forEach(consumer -> {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("name", consumer.consumerName());
+                item.put("pending", consumer.pendingCount());
+                item.put("idleMillis", consumer.idleTimeMs());
+                consumers.add(item);
+            });
+            stats.put("consumers", consumers);
+        }
+        stats.put("dlqLength", stringRedisTemplate.opsForStream().size(ORDER_DLQ_KEY));
+        stats.put("acked", acked.get());
+        stats.put("trimmed", trimmed.get());
+        stats.put("claimed", claimed.get());
+        stats.put("deadLettered", deadLettered.get());
+        return stats;
+    }
+
+    private StreamInfo.XInfoGroup group() {
+        return stringRedisTemplate.opsForStream().groups(ORDER_STREAM_KEY).stream()
+                .filter(group -> ORDER_STREAM_GROUP.equals(group.groupName()))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * 消息id的毫秒时间戳部分，id格式为 毫秒-序号
+     */
+    private static long idMillis(String id) {
+        if (id == null) {
+            return 0;
+        }
+        int index = id.indexOf('-');
+        return Long.parseLong(index < 0 ? id : id.substring(0, index));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,267 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 缓存重建调度器，替代各处的newFixedThreadPool(10)
+ * 同一key排队或重建中时不重复提交；队列有界，满时丢弃最早提交的任务
+ * 越热的key越先重建；每个缓存前缀(对应一张表)同时重建的数量受限，避免同一张表被重建请求压垮
+ * 任务异常会记录日志和失败次数，关闭时等待已提交的任务执行完
+ */
+@Slf4j
+@Component
+public class RebuildScheduler {
+
+    private final CacheProperties cacheProperties;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * 等待执行的任务，按热度从高到低、提交顺序从早到晚排序
+     */
+    private final TreeSet<RebuildTask> queue = new TreeSet<>(
+            Comparator.comparingLong((RebuildTask task) -> -task.priority).thenComparingLong(task -> task.seq));
+
+    /**
+     * key -> 等待执行的任务，按提交顺序排列，第一个为最早提交的任务
+     */
+    private final Map<String, RebuildTask> queued = new LinkedHashMap<>();
+
+    private final Set<String> running = new HashSet<>();
+
+    /**
+     * 缓存前缀 -> 正在重建的数量
+     */
+    private final Map<String, Integer> runningPerTable = new HashMap<>();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean accepting = true;
+
+    private long seq;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    public RebuildScheduler(CacheProperties cacheProperties, HotKeyDetector hotKeyDetector) {
+        this.cacheProperties = cacheProperties;
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    @PostConstruct
+    private void init() {
+        for (int i = 0; i < cacheProperties.getRebuildThreads(); i++) {
+            Thread worker = new Thread(this::work, "cache-rebuild-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * 停止接收新任务，等待队列中的任务执行完，超时后中断
+     */
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        lock.lock();
+        try {
+            accepting = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(cacheProperties.getRebuildShutdownSeconds());
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        if (!queued.isEmpty()) {
+            log.warn("缓存重建调度器关闭，丢弃未执行的任务{}个", queued.size());
+        }
+    }
+
+    /**
+     * 提交重建任务
+     * @param table 缓存前缀，同一前缀共享并发限制
+     * @param key 缓存key，用于去重和计算热度
+     * @return 是否进入队列，重复提交或已关闭时返回false
+     */
+    public boolean submit(String table, String key, Runnable task) {
+        if (!accepting) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        long priority = hotKeyDetector.count(key);
+        RebuildTask oldest = null;
+        lock.lock();
+        try {
+            if (queued.containsKey(key) || running.contains(key)) {
+                deduplicated.incrementAndGet();
+                return false;
+            }
+            //队列已满，丢弃最早提交的任务
+            if (queued.size() >= cacheProperties.getRebuildQueueCapacity()) {
+                Iterator<RebuildTask> iterator = queued.values().iterator();
+                oldest = iterator.next();
+                iterator.remove();
+                queue.remove(oldest);
+            }
+            RebuildTask rebuildTask = new RebuildTask(table, key, task, priority, seq++);
+            queued.put(key, rebuildTask);
+            queue.add(rebuildTask);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        submitted.incrementAndGet();
+        if (oldest != null) {
+            dropped.incrementAndGet();
+            log.warn("缓存重建队列已满，丢弃key={}", oldest.key);
+        }
+        return true;
+    }
+
+    private void work() {
+        while (true) {
+            RebuildTask task;
+            lock.lock();
+            try {
+                while ((task = next()) == null) {
+                    if (!accepting && queue.isEmpty()) {
+                        return;
+                    }
+                    changed.await();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            execute(task);
+        }
+    }
+
+    /**
+     * 取出优先级最高、且所属前缀未达到并发上限的任务，调用方需持有锁
+     */
+    private RebuildTask next() {
+        int limit = cacheProperties.getRebuildTableConcurrency();
+        for (RebuildTask task : queue) {
+            if (runningPerTable.getOrDefault(task.table, 0) < limit) {
+                queue.remove(task);
+                queued.remove(task.key);
+                running.add(task.key);
+                runningPerTable.merge(task.table, 1, Integer::sum);
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private void execute(RebuildTask task) {
+        long begin = System.nanoTime();
+        totalWaitNanos.addAndGet(begin - task.submitNanos);
+        try {
+            task.task.run();
+            completed.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            log.error("缓存重建失败，key={}", task.key, e);
+        } finally {
+            long cost = System.nanoTime() - begin;
+            totalRunNanos.addAndGet(cost);
+            maxRunNanos.accumulateAndGet(cost, Math::max);
+            lock.lock();
+            try {
+                running.remove(task.key);
+                runningPerTable.merge(task.table, -1, Integer::sum);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 队列长度、重建耗时和失败次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            stats.put("queueDepth", queued.size());
+            stats.put("running", running.size());
+            stats.put("runningPerTable", new HashMap<>(runningPerTable));
+        } finally {
+            lock.unlock();
+        }
+        long finished = completed.get() + failed.get();
+        stats.put("submitted", submitted.get());
+        stats.put("deduplicated", deduplicated.get());
+        stats.put("dropped", dropped.get());
+        stats.put("rejected", rejected.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("avgWaitMillis", finished == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / finished));
+        stats.put("avgRebuildMillis", finished == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / finished));
+        stats.put("maxRebuildMillis", TimeUnit.NANOSECONDS.toMillis(maxRunNanos.get()));
+        return stats;
+    }
+
+    private static class RebuildTask {
+        private final String table;
+        private final String key;
+        private final Runnable task;
+        private final long priority;
+        private final long seq;
+        private final long submitNanos = System.nanoTime();
+
+        RebuildTask(String table, String key, Runnable task, long priority, long seq) {
+            this.table = table;
+            this.key = key;
+            this.task = task;
+            this.priority = priority;
+            this.seq = seq;
+        }
+    }
+}
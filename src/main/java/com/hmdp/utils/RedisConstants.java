@@ -14,13 +14,36 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE = "cache:shop-type:";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_REBUILT_CHANNEL = "cache:rebuilt";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold-out";
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String SECKILL_ORDER_STATUS_KEY = "seckill:order-status:";
+    public static final String SECKILL_ORDER_STATUS_CHANNEL = "seckill:order-status";
+    public static final String ORDER_STREAM_KEY = "stream.orders";
+    public static final String ORDER_STREAM_GROUP = "g1";
+    public static final String ORDER_DLQ_KEY = "stream.orders.dlq";
+    public static final String ID_WORKER_KEY = "id:worker:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_STREAM_KEY = "stream.feed";
+    public static final String FEED_STREAM_GROUP = "g1";
+    public static final String FEED_FANOUT_KEY = "feed:fanout:";
+    public static final String FEED_OUTBOX_KEY = "outbox:";
+    public static final String FEED_CELEBRITY_KEY = "feed:celebrities";
+    public static final String FEED_FANS_KEY = "feed:fans:";
+    public static final String FEED_ACTIVE_KEY = "feed:active";
+    public static final String FOLLOW_KEY = "follow:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "sign:";
 }
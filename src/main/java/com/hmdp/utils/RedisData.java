@@ -8,4 +8,8 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    /**
+     * 重建耗时，单位毫秒，提前刷新模式使用
+     */
+    private Long delta;
 }
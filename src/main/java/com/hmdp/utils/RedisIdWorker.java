@@ -1,17 +1,29 @@
 package com.hmdp.utils;
 
 
+import com.hmdp.config.IdWorkerProperties;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 全局唯一Id生成器
+ * Id = 时间戳(相对BEGIN_TIMESTAMP的秒数) << 32 | 当天序列号
+ * segment模式下每次从redis获取一段序列号在本地分配，当前号段快用完时异步预取下一段(双缓冲)
+ * 配置为snowflake的业务前缀交给SnowflakeIdGenerator本地生成
  */
-
+@Slf4j
 @Component
 public class RedisIdWorker {
     /**
@@ -25,22 +37,54 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    //号段预取线程池
+    private static final ExecutorService SEGMENT_PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private StringRedisTemplate stringRedisTemplate;
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private final IdWorkerProperties idWorkerProperties;
+
+    private final SnowflakeIdGenerator snowflakeIdGenerator;
+
+    /**
+     * 业务前缀 -> 号段缓冲
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * 当天的日期字符串，避免每次格式化
+     */
+    private volatile CachedDate cachedDate = new CachedDate(LocalDate.MIN, "");
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate, IdWorkerProperties idWorkerProperties,
+                         SnowflakeIdGenerator snowflakeIdGenerator) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.idWorkerProperties = idWorkerProperties;
+        this.snowflakeIdGenerator = snowflakeIdGenerator;
     }
 
     public long nextId(String keyPrefix) {
+        String mode = idWorkerProperties.getPrefixModes().getOrDefault(keyPrefix, idWorkerProperties.getMode());
+        if ("snowflake".equals(mode)) {
+            return snowflakeIdGenerator.nextId();
+        }
         //1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
         long timestamp = nowSecond - BEGIN_TIMESTAMP;
         //2.生成序列号
         //2.1获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2key自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = format(now.toLocalDate());
+        //2.2key自增长，segment模式从本地号段分配
+        long count = "segment".equals(mode)
+                ? buffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(date)
+                : stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
         //3.拼接Id并返回
         /**
@@ -50,6 +94,105 @@ public class RedisIdWorker {
         return timestamp << COUNT_BITS | count;
     }
 
+    private String format(LocalDate today) {
+        CachedDate cached = cachedDate;
+        if (!cached.day.equals(today)) {
+            cached = new CachedDate(today, today.format(DATE_FORMATTER));
+            cachedDate = cached;
+        }
+        return cached.text;
+    }
+
+    private static class CachedDate {
+        private final LocalDate day;
+        private final String text;
+
+        CachedDate(LocalDate day, String text) {
+            this.day = day;
+            this.text = text;
+        }
+    }
+
+    /**
+     * 一段序列号 [cursor, max]，只能用于获取它的那一天
+     */
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long max;
+
+        Segment(String date, long min, long max) {
+            this.date = date;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+        }
+    }
+
+    /**
+     * 一个业务前缀的号段双缓冲：current正在分配，next为预取的下一段
+     */
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+
+        SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long value = segment.cursor.getAndIncrement();
+                    if (value <= segment.max) {
+                        //剩余数量低于阈值，异步预取下一段
+                        if (segment.max - value < idWorkerProperties.getSegmentStep() * idWorkerProperties.getPrefetchRatio()
+                                && next == null && prefetching.compareAndSet(false, true)) {
+                            prefetch(date);
+                        }
+                        return value;
+                    }
+                }
+                //号段用完或日期变化，切换到下一段
+                synchronized (this) {
+                    if (current == segment) {
+                        Segment prefetched = next;
+                        next = null;
+                        current = prefetched != null && prefetched.date.equals(date) ? prefetched : load(date);
+                    }
+                }
+            }
+        }
+
+        private void prefetch(String date) {
+            SEGMENT_PREFETCH_EXECUTOR.submit(() -> {
+                try {
+                    Segment segment = load(date);
+                    synchronized (this) {
+                        if (next == null) {
+                            next = segment;
+                        }
+                    }
+                } catch (Exception e) {
+                    log.error("预取号段失败，keyPrefix={}", keyPrefix, e);
+                } finally {
+                    prefetching.set(false);
+                }
+            });
+        }
+
+        /**
+         * INCRBY icr:keyPrefix:date step，返回 [end - step + 1, end]
+         */
+        private Segment load(String date) {
+            int step = idWorkerProperties.getSegmentStep();
+            long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, step);
+            return new Segment(date, end - step + 1, end);
+        }
+    }
+
     //public static void main(String[] args) {
     //    //初始时间戳
     //    LocalDateTime time = LocalDateTime.of(2023, 1, 1, 0, 0, 0);
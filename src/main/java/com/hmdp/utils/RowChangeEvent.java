@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 数据行变更事件，对应binlog中的一行
+ * 文件事件源中每行一个json：{"table":"tb_shop","type":"UPDATE","id":1}
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RowChangeEvent {
+    /**
+     * 表名
+     */
+    private String table;
+    /**
+     * INSERT、UPDATE、DELETE
+     */
+    private String type;
+    /**
+     * 主键
+     */
+    private Long id;
+}
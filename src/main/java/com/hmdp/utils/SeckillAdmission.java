@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.SeckillProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_KEY;
+
+/**
+ * 秒杀请求准入控制，在进入下单逻辑之前依次判断：
+ * 1.本节点每张秒杀券一个令牌桶，容量不超过redis中的剩余库存，库存之外的请求不会再占用线程
+ * 2.redis每秒计数，限制所有节点放行的总数
+ * 3.本节点同时下单的请求数有上限，超出的请求在有界队列中等待一段时间
+ * 任何一步不通过都立即拒绝，并给出建议的重试时间，避免秒杀请求占满tomcat线程影响其他接口
+ */
+@Slf4j
+@Component
+public class SeckillAdmission {
+
+    private static final DefaultRedisScript<Long> LIMIT_SCRIPT;
+    static {
+        LIMIT_SCRIPT = new DefaultRedisScript<>();
+        LIMIT_SCRIPT.setLocation(new ClassPathResource("seckill_limit.lua"));
+        LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 令牌桶容量按剩余库存调整的间隔
+     */
+    private static final long STOCK_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final SeckillProperties seckillProperties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillStockShards seckillStockShards;
+
+    /**
+     * 优惠券id -> 令牌桶
+     */
+    private final Cache<Long, TokenBucket> buckets = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    private final Semaphore permits;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong accepted = new AtomicLong();
+
+    private final AtomicLong shedLocal = new AtomicLong();
+
+    private final AtomicLong shedGlobal = new AtomicLong();
+
+    private final AtomicLong shedQueue = new AtomicLong();
+
+    private final AtomicLong queued = new AtomicLong();
+
+    public SeckillAdmission(SeckillProperties seckillProperties, StringRedisTemplate stringRedisTemplate,
+                            SeckillStockShards seckillStockShards) {
+        this.seckillProperties = seckillProperties;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillStockShards = seckillStockShards;
+        this.permits = new Semaphore(Math.max(1, seckillProperties.getAdmissionMaxConcurrent()));
+    }
+
+    /**
+     * 申请进入下单逻辑
+     * @return 0表示放行，调用方处理完成后必须调用release；大于0表示拒绝，值为建议的重试秒数；
+     * -1表示redis中没有库存，直接交给下单逻辑返回售罄或不存在(由SeckillGuard在本地判断)，无需release
+     */
+    public long acquire(Long voucherId) throws InterruptedException {
+        //1.本节点令牌桶
+        TokenBucket bucket = buckets.get(voucherId, id -> new TokenBucket(
+                seckillProperties.getAdmissionRates().getOrDefault(id, seckillProperties.getAdmissionRate())));
+        long waitNanos = bucket.tryAcquire(voucherId);
+        if (waitNanos < 0) {
+            return -1;
+        }
+        if (waitNanos > 0) {
+            shedLocal.incrementAndGet();
+            return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos) + 1);
+        }
+        //2.全局每秒计数
+        long second = System.currentTimeMillis() / 1000;
+        long globalRate = seckillProperties.getAdmissionGlobalRates()
+                .getOrDefault(voucherId, seckillProperties.getAdmissionGlobalRate());
+        Long allowed = stringRedisTemplate.execute(LIMIT_SCRIPT,
+                Collections.singletonList(SECKILL_LIMIT_KEY + voucherId + ":" + second), String.valueOf(globalRate));
+        if (allowed == null || allowed == 0) {
+            shedGlobal.incrementAndGet();
+            return 1;
+        }
+        //3.并发上限，有界等待
+        if (!permits.tryAcquire()) {
+            if (waiting.incrementAndGet() > seckillProperties.getAdmissionQueueCapacity()) {
+                waiting.decrementAndGet();
+                shedQueue.incrementAndGet();
+                return 1;
+            }
+            queued.incrementAndGet();
+            try {
+                if (!permits.tryAcquire(seckillProperties.getAdmissionQueueTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                    shedQueue.incrementAndGet();
+                    return 1;
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+        accepted.incrementAndGet();
+        return 0;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * 放行、各环节拒绝和排队的请求数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("accepted", accepted.get());
+        stats.put("shedLocal", shedLocal.get());
+        stats.put("shedGlobal", shedGlobal.get());
+        stats.put("shedQueue", shedQueue.get());
+        stats.put("queued", queued.get());
+        stats.put("waiting", waiting.get());
+        stats.put("running", seckillProperties.getAdmissionMaxConcurrent() - permits.availablePermits());
+        return stats;
+    }
+
+    /**
+     * 令牌桶，按速率补充令牌，容量为admission-burst和剩余库存中较小的一个
+     */
+    private class TokenBucket {
+        private final double ratePerNanos;
+        private double tokens;
+        private long capacity;
+        private long lastRefillNanos = System.nanoTime();
+        private long lastStockNanos = lastRefillNanos - STOCK_REFRESH_NANOS;
+
+        TokenBucket(double ratePerSecond) {
+            this.ratePerNanos = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = seckillProperties.getAdmissionBurst();
+            this.tokens = capacity;
+        }
+
+        /**
+         * @return 0表示获取到令牌，-1表示没有库存，否则为下一个令牌的等待时间，单位纳秒
+         */
+        synchronized long tryAcquire(Long voucherId) {
+            long now = System.nanoTime();
+            if (now - lastStockNanos >= STOCK_REFRESH_NANOS) {
+                lastStockNanos = now;
+                refreshCapacity(voucherId);
+            }
+            if (capacity == 0) {
+                return -1;
+            }
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * ratePerNanos);
+            lastRefillNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) ((1 - tokens) / ratePerNanos));
+        }
+
+        private void refreshCapacity(Long voucherId) {
+            try {
+                capacity = Math.min(seckillProperties.getAdmissionBurst(), seckillStockShards.remaining(voucherId));
+                tokens = Math.min(tokens, capacity);
+            } catch (Exception e) {
+                //读取库存失败时沿用上次的容量
+                log.warn("读取秒杀库存失败，voucherId={}", voucherId, e);
+            }
+        }
+    }
+}
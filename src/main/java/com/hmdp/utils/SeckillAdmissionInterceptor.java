@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.Result;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * 秒杀下单准入拦截器
+ * 放行的请求在完成后归还并发名额，拒绝的请求返回429和Retry-After
+ */
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+
+    private static final String ADMITTED = SeckillAdmissionInterceptor.class.getName() + ".admitted";
+
+    private final SeckillAdmission seckillAdmission;
+
+    private final SeckillProperties seckillProperties;
+
+    public SeckillAdmissionInterceptor(SeckillAdmission seckillAdmission, SeckillProperties seckillProperties) {
+        this.seckillAdmission = seckillAdmission;
+        this.seckillProperties = seckillProperties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!seckillProperties.isAdmissionEnabled()) {
+            return true;
+        }
+        //1.获取路径中的优惠券id /voucher-order/seckill/{id}
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (variables == null || variables.get("id") == null) {
+            return true;
+        }
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(variables.get("id"));
+        } catch (NumberFormatException e) {
+            return true;
+        }
+        //2.申请准入
+        long retryAfter = seckillAdmission.acquire(voucherId);
+        if (retryAfter == 0) {
+            request.setAttribute(ADMITTED, true);
+            return true;
+        }
+        if (retryAfter < 0) {
+            return true;
+        }
+        //3.拒绝，返回429状态码
+        response.setStatus(429);
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        response.setContentType("application/json;charset=UTF-8");
+        response.getOutputStream().write(JSONUtil.toJsonStr(Result.fail("抢购人数过多，请稍后重试！"))
+                .getBytes(StandardCharsets.UTF_8));
+        return false;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(ADMITTED) != null) {
+            request.removeAttribute(ADMITTED);
+            seckillAdmission.release();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀本地拦截
+ * 缓存秒杀券的开始、结束时间，记录已售罄的秒杀券，命中时不访问redis直接返回
+ * 售罄由lua脚本的结果得知，通过发布订阅同步到所有节点；售罄标记在本地过期后重新以redis为准，兼容后台补库存
+ */
+@Component
+public class SeckillGuard {
+
+    /**
+     * 发布订阅消息格式：+id 售罄，-id 撤销售罄，*id,beginTime,endTime 缓存秒杀时间
+     */
+    private static final char SOLD_OUT = '+';
+    private static final char RESET = '-';
+    private static final char PRIME = '*';
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillVoucherMapper seckillVoucherMapper;
+
+    /**
+     * 优惠券id -> 秒杀时间，不存在的优惠券缓存为空，新增秒杀券后由reset撤销
+     */
+    private final Cache<Long, Optional<SeckillVoucher>> vouchers;
+
+    private final Cache<Long, Boolean> soldOut;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    public SeckillGuard(SeckillProperties seckillProperties, StringRedisTemplate stringRedisTemplate,
+                        SeckillVoucherMapper seckillVoucherMapper, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherMapper = seckillVoucherMapper;
+        this.vouchers = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(seckillProperties.getVoucherTimeCacheSeconds(), TimeUnit.SECONDS)
+                .build();
+        this.soldOut = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(seckillProperties.getSoldOutTtlSeconds(), TimeUnit.SECONDS)
+                .build();
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            if (body.charAt(0) == PRIME) {
+                primeOne(decode(body.substring(1)));
+                return;
+            }
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.charAt(0) == SOLD_OUT) {
+                soldOut.put(voucherId, true);
+            } else {
+                soldOut.invalidate(voucherId);
+                vouchers.invalidate(voucherId);
+            }
+        }, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 本地判断是否可以参与秒杀，可以时返回null，否则返回失败原因
+     */
+    public String check(Long voucherId) {
+        String reason = doCheck(voucherId);
+        if (reason != null) {
+            rejected.incrementAndGet();
+        }
+        return reason;
+    }
+
+    private String doCheck(Long voucherId) {
+        //1.已售罄
+        if (soldOut.getIfPresent(voucherId) != null) {
+            return "库存不足！";
+        }
+        //2.秒杀时间
+        Optional<SeckillVoucher> voucher = vouchers.get(voucherId,
+                id -> Optional.ofNullable(seckillVoucherMapper.selectById(id)));
+        if (!voucher.isPresent()) {
+            return "秒杀券不存在！";
+        }
+        LocalDateTime now = LocalDateTime.now();
+        if (voucher.get().getBeginTime() != null && voucher.get().getBeginTime().isAfter(now)) {
+            return "秒杀尚未开始！";
+        }
+        if (voucher.get().getEndTime() != null && voucher.get().getEndTime().isBefore(now)) {
+            return "秒杀已经结束！";
+        }
+        return null;
+    }
+
+    /**
+     * 脚本返回库存不足后调用，通知所有节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.getIfPresent(voucherId) != null) {
+            return;
+        }
+        soldOut.put(voucherId, true);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId.toString());
+    }
+
+    /**
+     * 补充库存或修改秒杀时间后调用，通知所有节点撤销售罄标记和时间缓存
+     */
+    public void reset(Long voucherId) {
+        soldOut.invalidate(voucherId);
+        vouchers.invalidate(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESET + voucherId.toString());
+    }
+
+    /**
+     * 批量新增秒杀券后调用，通知所有节点撤销之前缓存的结果，消息通过pipeline一次发送
+     */
+    public void reset(Collection<Long> voucherIds) {
+        if (voucherIds.isEmpty()) {
+            return;
+        }
+        byte[] channel = SECKILL_SOLD_OUT_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        for (Long voucherId : voucherIds) {
+            soldOut.invalidate(voucherId);
+            vouchers.invalidate(voucherId);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long voucherId : voucherIds) {
+                connection.publish(channel, (RESET + voucherId.toString()).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 预加载秒杀券时调用，只缓存本节点的秒杀时间，开始时的请求不再查询数据库
+     * 尚未开始的秒杀券同时清除本节点过期的售罄标记，进行中的秒杀券保留售罄标记
+     */
+    public void prime(List<SeckillVoucher> seckillVouchers) {
+        for (SeckillVoucher voucher : seckillVouchers) {
+            primeOne(voucher);
+        }
+    }
+
+    /**
+     * 批量新增并立即上架秒杀券后调用，消息带上秒杀时间，所有节点(包括本节点)收到后直接缓存，
+     * 替换之前缓存的"秒杀券不存在"，开始时的请求不再查询数据库
+     */
+    public void primeAll(List<SeckillVoucher> seckillVouchers) {
+        if (seckillVouchers.isEmpty()) {
+            return;
+        }
+        prime(seckillVouchers);
+        byte[] channel = SECKILL_SOLD_OUT_CHANNEL.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (SeckillVoucher voucher : seckillVouchers) {
+                connection.publish(channel, (PRIME + encode(voucher)).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+    }
+
+    private void primeOne(SeckillVoucher voucher) {
+        vouchers.put(voucher.getVoucherId(), Optional.of(voucher));
+        if (voucher.getBeginTime() != null && voucher.getBeginTime().isAfter(LocalDateTime.now())) {
+            soldOut.invalidate(voucher.getVoucherId());
+        }
+    }
+
+    /**
+     * id,beginTime,endTime，时间为ISO格式，为空时留空
+     */
+    private static String encode(SeckillVoucher voucher) {
+        return voucher.getVoucherId() + ","
+                + (voucher.getBeginTime() == null ? "" : voucher.getBeginTime().toString()) + ","
+                + (voucher.getEndTime() == null ? "" : voucher.getEndTime().toString());
+    }
+
+    private static SeckillVoucher decode(String value) {
+        String[] parts = value.split(",", -1);
+        SeckillVoucher voucher = new SeckillVoucher();
+        voucher.setVoucherId(Long.valueOf(parts[0]));
+        voucher.setBeginTime(parts[1].isEmpty() ? null : LocalDateTime.parse(parts[1]));
+        voucher.setEndTime(parts[2].isEmpty() ? null : LocalDateTime.parse(parts[2]));
+        return voucher;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("soldOut", soldOut.asMap().keySet());
+        stats.put("rejected", rejected.get());
+        return stats;
+    }
+}
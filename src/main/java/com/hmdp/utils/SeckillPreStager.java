@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀券预加载
+ * 定期查询即将开始(stage-lead-seconds内)的秒杀券，用SETNX补齐redis库存(包括分片)，并缓存本节点的秒杀时间
+ * 每个节点都会执行，SETNX保证重复执行不会覆盖库存
+ */
+@Slf4j
+@Component
+public class SeckillPreStager {
+
+    private final SeckillProperties seckillProperties;
+
+    private final SeckillVoucherMapper seckillVoucherMapper;
+
+    private final SeckillStockShards seckillStockShards;
+
+    private final SeckillGuard seckillGuard;
+
+    public SeckillPreStager(SeckillProperties seckillProperties, SeckillVoucherMapper seckillVoucherMapper,
+                            SeckillStockShards seckillStockShards, SeckillGuard seckillGuard) {
+        this.seckillProperties = seckillProperties;
+        this.seckillVoucherMapper = seckillVoucherMapper;
+        this.seckillStockShards = seckillStockShards;
+        this.seckillGuard = seckillGuard;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stage-interval-millis:60000}")
+    public void stageUpcoming() {
+        try {
+            //1.查询即将开始和进行中的秒杀券，已开始的也要包括在内：
+            //  秒杀开始前没有执行到(节点停机、创建时已开始)的秒杀券不会因为错过时间窗口而一直没有库存
+            LocalDateTime now = LocalDateTime.now();
+            List<SeckillVoucher> vouchers = seckillVoucherMapper.selectList(new QueryWrapper<SeckillVoucher>()
+                    .select("voucher_id", "stock", "begin_time", "end_time")
+                    .le("begin_time", now.plusSeconds(seckillProperties.getStageLeadSeconds()))
+                    .gt("end_time", now));
+            if (vouchers.isEmpty()) {
+                return;
+            }
+            //2.读取分片数，补齐库存
+            Map<Long, Integer> shards = seckillStockShards.loadShardCounts(
+                    vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList()));
+            seckillStockShards.initStockBatch(vouchers, shards, true);
+            //3.缓存秒杀时间
+            seckillGuard.prime(vouchers);
+            log.debug("预加载秒杀券{}张", vouchers.size());
+        } catch (Exception e) {
+            log.error("预加载秒杀券失败", e);
+        }
+    }
+}
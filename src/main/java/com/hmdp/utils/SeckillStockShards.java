@@ -0,0 +1,241 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.entity.SeckillVoucher;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀库存分片
+ * 一张秒杀券的库存拆分到K个key：seckill:stock:{voucherId:i}，已下单用户拆分到 seckill:order:{voucherId:i}
+ * 同一分片的库存和订单key使用相同的hash tag，集群模式下在同一个slot，不同分片分散到不同slot
+ * 下单流程：
+ * 1.用户按id哈希到所属分片，判断是否下过单、记录用户并尝试扣减本分片库存(一个脚本，原子)
+ * 2.本分片没有库存时依次从其他分片扣减，每个分片的扣减都是原子的，不会超卖
+ * 3.所有分片都没有库存时移除第1步记录的用户
+ */
+@Component
+public class SeckillStockShards {
+
+    private static final DefaultRedisScript<Long> SHARD_SCRIPT;
+    private static final DefaultRedisScript<Long> STEAL_SCRIPT;
+    static {
+        SHARD_SCRIPT = new DefaultRedisScript<>();
+        SHARD_SCRIPT.setLocation(new ClassPathResource("seckill_shard.lua"));
+        SHARD_SCRIPT.setResultType(Long.class);
+        STEAL_SCRIPT = new DefaultRedisScript<>();
+        STEAL_SCRIPT.setLocation(new ClassPathResource("seckill_steal.lua"));
+        STEAL_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 批量写入库存时每个pipeline包含的优惠券数
+     */
+    private static final int PIPELINE_BATCH = 500;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 优惠券id -> 分片数，创建后不再变化
+     */
+    private final Cache<Long, Integer> shardCounts = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(10, TimeUnit.SECONDS)
+            .build();
+
+    public SeckillStockShards(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    /**
+     * 用户所属分片
+     */
+    public static int shardOf(Long userId, int shards) {
+        return (int) Math.floorMod(Long.hashCode(userId) * 0x9E3779B9L, (long) shards);
+    }
+
+    /**
+     * 优惠券的分片数，未分片返回1
+     */
+    public int shards(Long voucherId) {
+        return shardCounts.get(voucherId, id -> {
+            String count = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + id);
+            return count == null ? 1 : Integer.parseInt(count);
+        });
+    }
+
+    /**
+     * redis中的剩余库存，分片时为各分片之和
+     */
+    public long remaining(Long voucherId) {
+        int shards = shards(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        if (shards > 1) {
+            for (int i = 0; i < shards; i++) {
+                keys.add(stockKey(voucherId, i));
+            }
+        } else {
+            keys.add(SECKILL_STOCK_KEY + voucherId);
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        long remaining = 0;
+        if (values != null) {
+            for (String value : values) {
+                remaining += value == null ? 0 : Math.max(0, Long.parseLong(value));
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * 将库存平均拆分到各分片，余数分给前面的分片
+     */
+    public void initStock(Long voucherId, int stock, int shards) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < shards; i++) {
+                int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+                connection.stringCommands().set(bytes(stockKey(voucherId, i)), bytes(String.valueOf(shardStock)));
+            }
+            connection.stringCommands().set(bytes(SECKILL_SHARDS_KEY + voucherId), bytes(String.valueOf(shards)));
+            return null;
+        });
+        shardCounts.put(voucherId, shards);
+    }
+
+    /**
+     * 批量写入库存，按批次pipeline写入
+     * @param shards 优惠券id -> 分片数，只包含分片数大于1的优惠券
+     * @param onlyIfAbsent 只写入不存在的库存key(SETNX)，已有的库存可能已被扣减
+     */
+    public void initStockBatch(List<SeckillVoucher> vouchers, Map<Long, Integer> shards, boolean onlyIfAbsent) {
+        for (int from = 0; from < vouchers.size(); from += PIPELINE_BATCH) {
+            List<SeckillVoucher> batch = vouchers.subList(from, Math.min(vouchers.size(), from + PIPELINE_BATCH));
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (SeckillVoucher voucher : batch) {
+                    Long voucherId = voucher.getVoucherId();
+                    int stock = voucher.getStock();
+                    int count = shards.getOrDefault(voucherId, 1);
+                    if (count > 1) {
+                        for (int i = 0; i < count; i++) {
+                            byte[] value = bytes(String.valueOf(stock / count + (i < stock % count ? 1 : 0)));
+                            if (onlyIfAbsent) {
+                                connection.stringCommands().setNX(bytes(stockKey(voucherId, i)), value);
+                            } else {
+                                connection.stringCommands().set(bytes(stockKey(voucherId, i)), value);
+                            }
+                        }
+                        connection.stringCommands().set(bytes(SECKILL_SHARDS_KEY + voucherId), bytes(String.valueOf(count)));
+                    } else if (onlyIfAbsent) {
+                        connection.stringCommands().setNX(bytes(SECKILL_STOCK_KEY + voucherId), bytes(String.valueOf(stock)));
+                    } else {
+                        connection.stringCommands().set(bytes(SECKILL_STOCK_KEY + voucherId), bytes(String.valueOf(stock)));
+                    }
+                }
+                return null;
+            });
+        }
+        shardCounts.putAll(shards);
+    }
+
+    /**
+     * 只保存分片数，库存由预加载任务在秒杀开始前写入
+     */
+    public void saveShardCounts(Map<Long, Integer> shards) {
+        if (shards.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            shards.forEach((voucherId, count) -> connection.stringCommands()
+                    .set(bytes(SECKILL_SHARDS_KEY + voucherId), bytes(String.valueOf(count))));
+            return null;
+        });
+        shardCounts.putAll(shards);
+    }
+
+    /**
+     * 批量读取分片数，只返回分片数大于1的优惠券
+     */
+    public Map<Long, Integer> loadShardCounts(List<Long> voucherIds) {
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(voucherIds.stream()
+                .map(id -> SECKILL_SHARDS_KEY + id).collect(Collectors.toList()));
+        Map<Long, Integer> shards = new HashMap<>();
+        for (int i = 0; values != null && i < voucherIds.size(); i++) {
+            if (values.get(i) != null && Integer.parseInt(values.get(i)) > 1) {
+                shards.put(voucherIds.get(i), Integer.parseInt(values.get(i)));
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * 分片扣减库存并记录用户
+     * @return 大于等于0：成功，值为实际扣减的分片；-1：库存不足；-2：重复下单
+     */
+    public int reserve(Long voucherId, Long userId, int shards) {
+        int home = shardOf(userId, shards);
+        //1.所属分片：判断重复下单、记录用户、尝试扣减
+        Long result = stringRedisTemplate.execute(SHARD_SCRIPT,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home)), userId.toString());
+        int r = result.intValue();
+        if (r == 0) {
+            return home;
+        }
+        if (r != 3) {
+            return -r;
+        }
+        //2.依次从其他分片扣减，出现异常时撤销用户记录(此时还没有扣减到库存)
+        try {
+            for (int i = 1; i < shards; i++) {
+                int shard = (home + i) % shards;
+                Long stolen = stringRedisTemplate.execute(STEAL_SCRIPT,
+                        Collections.singletonList(stockKey(voucherId, shard)));
+                if (stolen != null && stolen == 0) {
+                    return shard;
+                }
+            }
+        } catch (RuntimeException e) {
+            stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home), userId.toString());
+            throw e;
+        }
+        //3.全部售罄，撤销用户记录
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home), userId.toString());
+        return -1;
+    }
+
+    /**
+     * 撤销reserve：库存还给实际扣减的分片，从所属分片的订单key中移除用户
+     * 用于扣减成功后写入消息队列失败的情况
+     */
+    public void release(Long voucherId, Long userId, int shards, int shard) {
+        stringRedisTemplate.opsForValue().increment(stockKey(voucherId, shard));
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, shardOf(userId, shards)), userId.toString());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
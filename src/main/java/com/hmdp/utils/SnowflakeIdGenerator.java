@@ -0,0 +1,214 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.config.IdWorkerProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
+
+/**
+ * 本地Id生成器，生成Id时不访问redis
+ * Id = 毫秒时间戳(41位) << 22 | workerId(10位) << 12 | 序列号(12位)
+ * workerId来自配置，或启动时通过 SET id:worker:n NX EX 租用并在后台续约
+ * 时间戳和序列号保存在同一个AtomicLong中，CAS更新，同一节点生成的Id严格递增
+ * 时钟回拨不超过maxBackwardMillis时沿用上次的时间戳继续递增序列号，超过时拒绝生成
+ *
+ * 开始时间比RedisIdWorker早一年，使本生成器的Id大于同一时刻之前RedisIdWorker生成的所有Id，
+ * 业务前缀从redis方式切换过来后不会与历史Id重复；反过来切回redis方式则可能重复
+ */
+@Slf4j
+@Component
+public class SnowflakeIdGenerator {
+
+    /**
+     * 开始时间戳
+     * 2022.1.1.0.0.0，单位毫秒
+     */
+    private static final long BEGIN_MILLIS = 1640995200000L;
+
+    private static final int WORKER_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_WORKER_ID = (1 << WORKER_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("worker_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final IdWorkerProperties idWorkerProperties;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 本节点的租约标识
+     */
+    private final String instanceId = UUID.randomUUID().toString(true);
+
+    /**
+     * 上一个Id的 毫秒时间戳 << 12 | 序列号
+     */
+    private final AtomicLong last = new AtomicLong();
+
+    private volatile int workerId = -1;
+
+    /**
+     * workerId是否通过redis租用，租用的需要续约和释放
+     */
+    private volatile boolean leased;
+
+    /**
+     * 租约到期时间，续约失败超过租期后其他节点可能占用同一个workerId，此时停止生成
+     */
+    private volatile long leaseDeadline;
+
+    private final AtomicLong backwardCount = new AtomicLong();
+
+    private final ScheduledExecutorService renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SnowflakeIdGenerator(IdWorkerProperties idWorkerProperties, StringRedisTemplate stringRedisTemplate) {
+        this.idWorkerProperties = idWorkerProperties;
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @PostConstruct
+    private void init() {
+        boolean used = "snowflake".equals(idWorkerProperties.getMode())
+                || idWorkerProperties.getPrefixModes().containsValue("snowflake");
+        if (!used) {
+            return;
+        }
+        //1.配置了workerId直接使用
+        int configured = idWorkerProperties.getWorkerId();
+        if (configured >= 0) {
+            if (configured > MAX_WORKER_ID) {
+                throw new IllegalStateException("workerId超出范围：" + configured);
+            }
+            workerId = configured;
+            return;
+        }
+        //2.通过redis租用，后台续约
+        workerId = lease();
+        leased = true;
+        long period = Math.max(1, idWorkerProperties.getWorkerLeaseSeconds() / 3);
+        renewer.scheduleAtFixedRate(this::renew, period, period, TimeUnit.SECONDS);
+        log.info("租用workerId={}", workerId);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        renewer.shutdownNow();
+        if (leased && workerId >= 0) {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ID_WORKER_KEY + workerId), instanceId);
+        }
+    }
+
+    public long nextId() {
+        int worker = workerId;
+        if (worker < 0 || leased && System.currentTimeMillis() > leaseDeadline) {
+            throw new IllegalStateException("没有可用的workerId");
+        }
+        while (true) {
+            long prev = last.get();
+            long prevMillis = prev >>> SEQUENCE_BITS;
+            long now = System.currentTimeMillis() - BEGIN_MILLIS;
+            long next;
+            if (now > prevMillis) {
+                //1.进入新的毫秒，序列号从0开始
+                next = now << SEQUENCE_BITS;
+            } else {
+                //2.同一毫秒或时钟回拨：序列号递增，用完时自然进位到下一毫秒
+                if (prevMillis - now > idWorkerProperties.getMaxBackwardMillis()) {
+                    backwardCount.incrementAndGet();
+                    throw new IllegalStateException("时钟回拨" + (prevMillis - now) + "ms，拒绝生成Id");
+                }
+                next = prev + 1;
+            }
+            if (last.compareAndSet(prev, next)) {
+                return (next >>> SEQUENCE_BITS) << (WORKER_BITS + SEQUENCE_BITS)
+                        | (long) worker << SEQUENCE_BITS
+                        | next & SEQUENCE_MASK;
+            }
+        }
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    public long getBackwardCount() {
+        return backwardCount.get();
+    }
+
+    /**
+     * 从随机位置开始依次尝试占用空闲的workerId
+     */
+    private int lease() {
+        int seconds = idWorkerProperties.getWorkerLeaseSeconds();
+        int start = ThreadLocalRandom.current().nextInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            int candidate = (start + i) & MAX_WORKER_ID;
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + candidate, instanceId, seconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                leaseDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(seconds);
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("没有空闲的workerId");
+    }
+
+    /**
+     * 续约，租约已被其他节点占用时换一个workerId，换不到则停止生成
+     */
+    private void renew() {
+        try {
+            if (workerId < 0) {
+                workerId = lease();
+                log.info("租用workerId={}", workerId);
+                return;
+            }
+            long begin = System.currentTimeMillis();
+            Long result = stringRedisTemplate.execute(LEASE_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), instanceId,
+                    String.valueOf(idWorkerProperties.getWorkerLeaseSeconds()));
+            if (result != null && result == 1) {
+                leaseDeadline = begin + TimeUnit.SECONDS.toMillis(idWorkerProperties.getWorkerLeaseSeconds());
+                return;
+            }
+            log.warn("workerId={}的租约已被占用，重新租用", workerId);
+            workerId = -1;
+            workerId = lease();
+            log.info("租用workerId={}", workerId);
+        } catch (Exception e) {
+            //redis暂时不可用时继续使用当前workerId，租期内下次续约成功即可
+            log.error("workerId续约失败", e);
+        }
+    }
+}
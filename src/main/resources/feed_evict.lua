@@ -0,0 +1,8 @@
+-- 淘汰一批不活跃用户的收件箱，与读取时的活跃标记在同一个脚本中判断，避免删除刚回来的用户的收件箱
+-- KEYS[1] feed:active，ARGV[1] 最后活跃时间的上限，ARGV[2] 每批数量
+local users = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, ARGV[2])
+for i = 1, #users do
+    redis.call('del', 'feed:' .. users[i])
+    redis.call('zrem', KEYS[1], users[i])
+end
+return #users
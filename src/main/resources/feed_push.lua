@@ -0,0 +1,13 @@
+-- 笔记推送到一批粉丝的收件箱，每个收件箱ZADD后按排名裁剪到上限
+-- 不在活跃集合中的粉丝(收件箱已淘汰或从未建立)跳过，下次读取时重建
+-- KEYS[1] feed:active，ARGV[1] 笔记id，ARGV[2] 时间戳，ARGV[3] 收件箱上限，ARGV[4..] 粉丝id
+local pushed = 0
+for i = 4, #ARGV do
+    if(redis.call('zscore', KEYS[1], ARGV[i])) then
+        local key = 'feed:' .. ARGV[i]
+        redis.call('zadd', key, ARGV[2], ARGV[1])
+        redis.call('zremrangebyrank', key, 0, -tonumber(ARGV[3]) - 1)
+        pushed = pushed + 1
+    end
+end
+return pushed
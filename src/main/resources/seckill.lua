@@ -5,6 +5,8 @@ local voucherId = ARGV[1]
 local userId = ARGV[2]
 -- 1.3.订单id
 local orderId = ARGV[3]
+-- 1.4.订单状态保存时间(秒)
+local statusTtl = ARGV[4]
 
 -- 2.数据key
 -- 2.1.库存key
@@ -30,4 +32,8 @@ redis.call('incrby', stockKey, -1)
 redis.call('sadd', orderKey, userId)
 -- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
 redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 3.7.记录订单状态，消费者保存后更新 hset seckill:order-status:orderId s queued u userId
+local statusKey = 'seckill:order-status:' .. orderId
+redis.call('hset', statusKey, 's', 'queued', 'u', userId)
+redis.call('expire', statusKey, statusTtl)
 return 0
\ No newline at end of file
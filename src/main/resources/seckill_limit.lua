@@ -0,0 +1,10 @@
+-- 秒杀全局限流，每张秒杀券每秒一个计数器
+-- KEYS[1] seckill:limit:voucherId:秒，ARGV[1] 每秒上限
+local count = redis.call('incr', KEYS[1])
+if(count == 1) then
+    redis.call('expire', KEYS[1], 2)
+end
+if(count > tonumber(ARGV[1])) then
+    return 0
+end
+return 1
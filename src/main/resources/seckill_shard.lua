@@ -0,0 +1,21 @@
+-- 分片库存下单，用户所属分片
+-- KEYS[1] 分片库存key seckill:stock:{voucherId:i}
+-- KEYS[2] 分片订单key seckill:order:{voucherId:i}，与库存在同一个slot
+-- ARGV[1] 用户id
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local userId = ARGV[1]
+
+-- 1.判断用户是否下单，同一用户总是落在同一个订单分片
+if(redis.call('sismember', orderKey, userId) == 1) then
+    return 2
+end
+-- 2.记录用户，防止同一用户并发下单
+redis.call('sadd', orderKey, userId)
+-- 3.本分片有库存，直接扣减
+if(tonumber(redis.call('get', stockKey) or '0') > 0) then
+    redis.call('incrby', stockKey, -1)
+    return 0
+end
+-- 4.本分片库存不足，需要从其他分片扣减
+return 3
@@ -0,0 +1,7 @@
+-- 从其他分片扣减库存
+-- KEYS[1] 分片库存key seckill:stock:{voucherId:j}
+if(tonumber(redis.call('get', KEYS[1]) or '0') > 0) then
+    redis.call('incrby', KEYS[1], -1)
+    return 0
+end
+return 1
@@ -0,0 +1,10 @@
+-- 续约workerId
+-- KEYS[1] id:worker:workerId，ARGV[1] 节点标识，ARGV[2] 租期(秒)
+if(redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+-- 租约已过期且未被其他节点占用，重新占用
+if(redis.call('set', KEYS[1], ARGV[1], 'NX', 'EX', ARGV[2])) then
+    return 1
+end
+return 0
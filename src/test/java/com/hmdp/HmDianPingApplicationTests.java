@@ -1,30 +1,56 @@
 package com.hmdp;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.config.CacheProperties;
+import com.hmdp.config.IdWorkerProperties;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Shop;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.BinaryCacheCodec;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.HybridFeed;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.LocalChangeEventSource;
+import com.hmdp.utils.OrderLock;
 import com.hmdp.utils.RedisIdWorker;
 import com.mysql.jdbc.TimeUtil;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
 
 import javax.annotation.Resource;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_ACTIVE_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_CELEBRITY_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_KEY;
 import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
 
 @SpringBootTest
@@ -44,27 +70,135 @@ class HmDianPingApplicationTests {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheProperties cacheProperties;
+
+    @Resource
+    private LocalChangeEventSource localChangeEventSource;
+
+    @Resource
+    private SeckillProperties seckillProperties;
+
+    @Resource
+    private IdWorkerProperties idWorkerProperties;
+
+    @Resource
+    private OrderLock orderLock;
+
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+
+    @Resource
+    private HybridFeed hybridFeed;
+
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
     @Test
     void testIdWorker() throws Exception {
-        CountDownLatch latch = new CountDownLatch(300);
+        //对比每个Id一次INCR、号段分配和本地生成的吞吐量，同时校验Id不重复
+        String mode = idWorkerProperties.getMode();
+        try {
+            for (String m : new String[]{"incr", "segment", "snowflake"}) {
+                idWorkerProperties.setMode(m);
+                Set<Long> ids = ConcurrentHashMap.newKeySet();
+                CountDownLatch latch = new CountDownLatch(300);
+                Runnable task = () -> {
+                    for (int i = 0; i < 100; i++) {
+                        ids.add(redisIdWorker.nextId("bench"));
+                    }
+                    latch.countDown();
+                };
+                long begin = System.currentTimeMillis();
+                for (int i = 0; i < 300; i++) {
+                    es.submit(task);
+                }
+                latch.await();
+                long cost = Math.max(1, System.currentTimeMillis() - begin);
+                System.out.println("mode = " + m + ", time = " + cost + "ms, ids/s = " + 30000 * 1000L / cost);
+                Assertions.assertEquals(30000, ids.size());
+            }
+        } finally {
+            idWorkerProperties.setMode(mode);
+        }
+    }
 
-        Runnable task = () -> {
-            for (int i = 0; i < 100; i++) {
-                long id = redisIdWorker.nextId("order");
-                System.out.println("id = " + id);
+    /**
+     * 对比纯推模式和推拉结合的写放大、读延迟，同时校验两种方式滚动读到的笔记顺序一致
+     */
+    @Test
+    void testHybridFeed() {
+        int celebrities = 10, posts = 20, fans = 200, pageSize = 5;
+        long pushUser = 900000000L, pullUser = 900000001L, celebrityBase = 910000000L;
+        long now = System.currentTimeMillis();
+        List<String> keys = new ArrayList<>();
+        try {
+            //1.纯推模式：每篇笔记写入所有粉丝的收件箱，pushUser是其中一个粉丝
+            long begin = System.currentTimeMillis();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (int c = 0; c < celebrities; c++) {
+                    for (int p = 0; p < posts; p++) {
+                        //同一时刻每个大V各发一篇，制造相同时间戳
+                        byte[] member = String.valueOf((celebrityBase + c) * 100 + p).getBytes();
+                        for (int f = 0; f < fans; f++) {
+                            connection.zSetCommands().zAdd((FEED_KEY + (pushUser + f * 2)).getBytes(), now - p, member);
+                        }
+                    }
+                }
+                return null;
+            });
+            long pushWriteCost = System.currentTimeMillis() - begin;
+            for (int f = 0; f < fans; f++) {
+                keys.add(FEED_KEY + (pushUser + f * 2));
+            }
+            //2.推拉结合：每篇笔记只写入大V的发件箱，pullUser关注所有大V
+            begin = System.currentTimeMillis();
+            for (int c = 0; c < celebrities; c++) {
+                String outbox = FEED_OUTBOX_KEY + (celebrityBase + c);
+                keys.add(outbox);
+                for (int p = 0; p < posts; p++) {
+                    stringRedisTemplate.opsForZSet().add(outbox, String.valueOf((celebrityBase + c) * 100 + p), now - p);
+                }
+                stringRedisTemplate.opsForSet().add(FEED_CELEBRITY_KEY, String.valueOf(celebrityBase + c));
+                stringRedisTemplate.opsForSet().add(FOLLOW_KEY + pullUser, String.valueOf(celebrityBase + c));
+            }
+            keys.add(FOLLOW_KEY + pullUser);
+            long pullWriteCost = System.currentTimeMillis() - begin;
+            System.out.println("push writes = " + celebrities * posts * fans + ", time = " + pushWriteCost + "ms");
+            System.out.println("hybrid writes = " + celebrities * posts + ", time = " + pullWriteCost + "ms");
+            //3.滚动读完整个关注流
+            List<Long> pushIds = new ArrayList<>();
+            List<Long> pullIds = new ArrayList<>();
+            long pushReadNanos = scrollFeed(pushUser, now, pageSize, pushIds);
+            long pullReadNanos = scrollFeed(pullUser, now, pageSize, pullIds);
+            int pages = celebrities * posts / pageSize;
+            System.out.println("push read = " + pushReadNanos / pages / 1000 + "us/page");
+            System.out.println("hybrid read = " + pullReadNanos / pages / 1000 + "us/page");
+            Assertions.assertEquals(celebrities * posts, pushIds.size());
+            Assertions.assertEquals(pushIds, pullIds);
+        } finally {
+            stringRedisTemplate.delete(keys);
+            stringRedisTemplate.opsForZSet().remove(FEED_ACTIVE_KEY, String.valueOf(pushUser), String.valueOf(pullUser));
+            for (int c = 0; c < celebrities; c++) {
+                stringRedisTemplate.opsForSet().remove(FEED_CELEBRITY_KEY, String.valueOf(celebrityBase + c));
             }
-            latch.countDown();
-        };
-        long begin = System.currentTimeMillis();
-        for (int i = 0; i < 300; i++) {
-            es.submit(task);
         }
-        latch.await();
-        long end = System.currentTimeMillis();
-        System.out.println("time = " + (end - begin));
+    }
 
+    private long scrollFeed(Long userId, long max, int pageSize, List<Long> ids) {
+        long begin = System.nanoTime();
+        int offset = 0;
+        while (true) {
+            HybridFeed.FeedPage page = hybridFeed.read(userId, max, offset, pageSize);
+            if (page.getIds().isEmpty()) {
+                return System.nanoTime() - begin;
+            }
+            ids.addAll(page.getIds());
+            max = page.getMinTime();
+            offset = page.getOffset();
+        }
     }
 
     /**
@@ -79,6 +213,210 @@ class HmDianPingApplicationTests {
 
     }
 
+    /**
+     * 互斥锁重建压测
+     * 冷key上500个并发请求，对比休眠重试与single-flight的p99延迟和数据库查询次数
+     */
+    @Test
+    void testQueryWithMutexLoad() throws InterruptedException {
+        int threads = 500;
+        for (boolean singleFlight : new boolean[]{false, true}) {
+            cacheProperties.setSingleFlight(singleFlight);
+            cacheClient.delete(CACHE_SHOP_KEY + 1L);
+            AtomicInteger dbCalls = new AtomicInteger();
+            List<Long> latencies = Collections.synchronizedList(new ArrayList<>(threads));
+            CountDownLatch latch = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                es.submit(() -> {
+                    long begin = System.nanoTime();
+                    try {
+                        cacheClient.queryWithMutex(CACHE_SHOP_KEY, 1L, Shop.class, id -> {
+                            dbCalls.incrementAndGet();
+                            //模拟慢查询
+                            try {
+                                Thread.sleep(200);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return shopService.getById(id);
+                        }, 30L, TimeUnit.MINUTES);
+                    } finally {
+                        latencies.add(System.nanoTime() - begin);
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            Collections.sort(latencies);
+            long p99 = latencies.get((int) (threads * 0.99) - 1);
+            System.out.println("singleFlight = " + singleFlight
+                    + ", p99 = " + TimeUnit.NANOSECONDS.toMillis(p99) + "ms"
+                    + ", dbCalls = " + dbCalls.get());
+        }
+        cacheProperties.setSingleFlight(true);
+    }
+
+    /**
+     * 缓存序列化对比
+     * 对比json与binary序列化Shop的编解码耗时和字节数
+     */
+    @Test
+    void testCacheCodec() {
+        Shop shop = shopService.getById(1L);
+        CacheCodec[] codecs = {new JsonCacheCodec(), new BinaryCacheCodec(-1), new BinaryCacheCodec(0)};
+        String[] names = {"json", "binary", "binary+lz4"};
+        int rounds = 100000;
+        for (int i = 0; i < codecs.length; i++) {
+            CacheCodec codec = codecs[i];
+            byte[] bytes = codec.encode(shop);
+            //预热
+            for (int j = 0; j < rounds; j++) {
+                codec.decode(codec.encode(shop), Shop.class);
+            }
+            long begin = System.nanoTime();
+            for (int j = 0; j < rounds; j++) {
+                codec.encode(shop);
+            }
+            long encodeNanos = (System.nanoTime() - begin) / rounds;
+            begin = System.nanoTime();
+            for (int j = 0; j < rounds; j++) {
+                codec.decode(bytes, Shop.class);
+            }
+            long decodeNanos = (System.nanoTime() - begin) / rounds;
+            System.out.println(names[i] + ": bytes = " + bytes.length
+                    + ", encode = " + encodeNanos + "ns, decode = " + decodeNanos + "ns");
+        }
+    }
+
+    /**
+     * 数据变更事件驱动缓存删除
+     * 本地事件源模拟binlog，发布后第一次删除，延迟后再删除一次重建时写回的旧数据
+     */
+    @Test
+    void testCacheInvalidationPipeline() throws InterruptedException {
+        String key = CACHE_SHOP_KEY + 1;
+        cacheClient.set(key, shopService.getById(1L), 10L, TimeUnit.MINUTES);
+        localChangeEventSource.publish("tb_shop", "UPDATE", 1L);
+        Thread.sleep(cacheProperties.getCdcBatchWindowMillis() + 100);
+        Assertions.assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)), "第一次删除后缓存仍存在");
+        //模拟并发重建写回旧数据
+        cacheClient.set(key, shopService.getById(1L), 10L, TimeUnit.MINUTES);
+        Assertions.assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)));
+        Thread.sleep(cacheProperties.getCdcDoubleDeleteDelayMillis() + 200);
+        Assertions.assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)), "延迟双删后旧数据仍存在");
+    }
+
+    /**
+     * 订单批量保存吞吐量，分别使用1、4、16个消费者线程，每批batch-size条
+     * 与消费者线程的处理方式一致，直接调用批量保存；测试订单的用户id从1000000000开始，结束后删除并恢复库存
+     */
+    @Test
+    void testBatchOrderThroughput() throws InterruptedException {
+        SeckillVoucher voucher = seckillVoucherService.list().get(0);
+        int total = 20000;
+        long testUserId = 1000000000L;
+        for (int consumers : new int[]{1, 4, 16}) {
+            seckillVoucherService.update().setSql("stock = stock + " + total)
+                    .eq("voucher_id", voucher.getVoucherId()).update();
+            //1.按批次准备订单
+            ConcurrentLinkedQueue<List<VoucherOrder>> batches = new ConcurrentLinkedQueue<>();
+            List<VoucherOrder> batch = new ArrayList<>();
+            for (int i = 0; i < total; i++) {
+                VoucherOrder order = new VoucherOrder();
+                order.setId(redisIdWorker.nextId("order"));
+                order.setUserId(testUserId + i);
+                order.setVoucherId(voucher.getVoucherId());
+                batch.add(order);
+                if (batch.size() == seckillProperties.getBatchSize()) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+            //2.多个消费者并发保存
+            ExecutorService consumerPool = Executors.newFixedThreadPool(consumers);
+            CountDownLatch latch = new CountDownLatch(consumers);
+            long begin = System.currentTimeMillis();
+            for (int i = 0; i < consumers; i++) {
+                consumerPool.submit(() -> {
+                    try {
+                        List<VoucherOrder> orders;
+                        while ((orders = batches.poll()) != null) {
+                            voucherOrderService.createVoucherOrders(orders);
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            long cost = System.currentTimeMillis() - begin;
+            consumerPool.shutdown();
+            System.out.println("consumers = " + consumers + ", orders = " + total
+                    + ", cost = " + cost + "ms, throughput = " + total * 1000L / Math.max(1, cost) + "/s");
+            //3.删除测试订单
+            voucherOrderService.remove(new QueryWrapper<VoucherOrder>().ge("user_id", testUserId));
+        }
+    }
+
+    /**
+     * 不同一人一单锁方式下逐条保存订单的吞吐量，16个消费者线程
+     * 每个用户下单两次，第二次由唯一索引上的INSERT IGNORE忽略，最终每个用户只有一个订单
+     */
+    @Test
+    void testOrderLockThroughput() throws InterruptedException {
+        SeckillVoucher voucher = seckillVoucherService.list().get(0);
+        int users = 2000;
+        long testUserId = 1000000000L;
+        String mode = seckillProperties.getOrderLockMode();
+        try {
+            for (String m : new String[]{"global", "redisson", "local", "none"}) {
+                seckillProperties.setOrderLockMode(m);
+                seckillVoucherService.update().setSql("stock = stock + " + users)
+                        .eq("voucher_id", voucher.getVoucherId()).update();
+                ConcurrentLinkedQueue<VoucherOrder> orders = new ConcurrentLinkedQueue<>();
+                for (int i = 0; i < users * 2; i++) {
+                    VoucherOrder order = new VoucherOrder();
+                    order.setId(redisIdWorker.nextId("order"));
+                    order.setUserId(testUserId + i % users);
+                    order.setVoucherId(voucher.getVoucherId());
+                    orders.add(order);
+                }
+                ExecutorService consumerPool = Executors.newFixedThreadPool(16);
+                CountDownLatch latch = new CountDownLatch(16);
+                long begin = System.currentTimeMillis();
+                for (int i = 0; i < 16; i++) {
+                    consumerPool.submit(() -> {
+                        try {
+                            VoucherOrder order;
+                            while ((order = orders.poll()) != null) {
+                                VoucherOrder voucherOrder = order;
+                                orderLock.execute(Collections.singleton(voucherOrder.getUserId()), () -> {
+                                    voucherOrderService.createVoucherOrder(voucherOrder);
+                                    return null;
+                                });
+                            }
+                        } finally {
+                            latch.countDown();
+                        }
+                    });
+                }
+                latch.await();
+                long cost = System.currentTimeMillis() - begin;
+                consumerPool.shutdown();
+                int saved = voucherOrderService.query().ge("user_id", testUserId).count();
+                System.out.println("lockMode = " + m + ", orders = " + users * 2 + ", saved = " + saved
+                        + ", cost = " + cost + "ms, throughput = " + users * 2000L / Math.max(1, cost) + "/s");
+                Assertions.assertEquals(users, saved);
+                voucherOrderService.remove(new QueryWrapper<VoucherOrder>().ge("user_id", testUserId));
+            }
+        } finally {
+            seckillProperties.setOrderLockMode(mode);
+        }
+    }
+
     /**
      * 搜索附近的店铺
      * 提前加载店铺信息到redis